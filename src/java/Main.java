@@ -1,9 +1,11 @@
 import ast.ASTPrinter;
+import ast.FunDecl;
 import ast.Program;
 import gen.CodeGenerator;
 import lexer.Scanner;
 import lexer.Token;
 import lexer.Tokeniser;
+import parser.Includes;
 import parser.Parser;
 import sem.SemanticAnalyzer;
 
@@ -11,6 +13,8 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 
 /**
@@ -32,13 +36,38 @@ public class Main {
     }
 
     private static void usage() {
-        System.out.println("Usage: java "+Main.class.getSimpleName()+" pass inputfile outputfile");
+        System.out.println("Usage: java "+Main.class.getSimpleName()+" pass [-regalloc=colour|linear] [-stream] [-I=directory]... inputfile outputfile");
         System.out.println("where pass is either: -lexer, -parser, -ast, -sem or -gen");
+        System.out.println("-stream makes -gen generate each function as soon as it is parsed");
+        System.out.println("and includes are only resolved given -I, from the directory of the file including them then each -I directory");
         System.exit(-1);
     }
 
     public static void main(String[] args) {
 
+        CodeGenerator.RegAlloc regAlloc = CodeGenerator.RegAlloc.COLOURING;
+        boolean stream = false;
+        List<File> includeDirectories = null;
+        // options come between the pass and the files
+        while (args.length > 3) {
+            switch (args[1]) {
+                case "-regalloc=colour": regAlloc = CodeGenerator.RegAlloc.COLOURING; break;
+                case "-regalloc=linear": regAlloc = CodeGenerator.RegAlloc.LINEAR; break;
+                case "-stream":          stream = true; break;
+                default:
+                    if (!args[1].startsWith("-I="))
+                        usage();
+                    if (includeDirectories == null)
+                        includeDirectories = new ArrayList<>();
+                    includeDirectories.add(new File(args[1].substring(3)));
+                    break;
+            }
+            String[] rest = new String[args.length - 1];
+            rest[0] = args[0];
+            System.arraycopy(args, 2, rest, 1, args.length - 2);
+            args = rest;
+        }
+
         if (args.length != 3)
             usage();
 
@@ -67,6 +96,8 @@ public class Main {
         }
 
         Tokeniser tokeniser = new Tokeniser(scanner);
+        Includes includes = includeDirectories == null ? null
+            : new Includes(includeDirectories, new File(System.getProperty("user.home"), ".cache/minic-headers"));
         if (mode == Mode.LEXER) {
             for (Token t = tokeniser.nextToken(); t.tokenClass != Token.TokenClass.EOF; t = tokeniser.nextToken()) 
                 System.out.println(t);
@@ -76,7 +107,7 @@ public class Main {
                 System.out.println("Lexing: failed ("+tokeniser.getErrorCount()+" errors)");
             System.exit(tokeniser.getErrorCount() == 0 ? PASS : LEXER_FAIL);
         } else if (mode == Mode.PARSER) {
-            Parser parser = new Parser(tokeniser);
+            Parser parser = new Parser(tokeniser, inputFile, includes);
             parser.parse();
             if (parser.getErrorCount() == 0)
                 System.out.println("Parsing: pass");
@@ -84,7 +115,7 @@ public class Main {
                 System.out.println("Parsing: failed ("+parser.getErrorCount()+" errors)");
             System.exit(parser.getErrorCount() == 0 ? PASS : PARSER_FAIL);
         }  else if (mode == Mode.AST) {
-            Parser parser = new Parser(tokeniser);
+            Parser parser = new Parser(tokeniser, inputFile, includes);
             Program programAst = parser.parse();
             if (parser.getErrorCount() == 0) {
                 System.out.println("Parsing: pass");
@@ -104,7 +135,7 @@ public class Main {
                 System.out.println("Parsing: failed ("+parser.getErrorCount()+" errors)");
             System.exit(parser.getErrorCount() == 0 ? PASS : PARSER_FAIL);
         } else if (mode == Mode.SEMANTICANALYSIS) {
-            Parser parser = new Parser(tokeniser);
+            Parser parser = new Parser(tokeniser, inputFile, includes);
             Program programAst = parser.parse();
             if (parser.getErrorCount() == 0) {
                 SemanticAnalyzer sem = new SemanticAnalyzer();
@@ -116,8 +147,10 @@ public class Main {
                 System.exit(errors == 0 ? PASS : SEM_FAIL);
             } else
                 System.exit(PARSER_FAIL);
+        } else if (mode == Mode.GEN && stream) {
+            generateStreamed(new Parser(tokeniser, inputFile, includes), regAlloc, outputFile);
         } else if (mode == Mode.GEN) {
-            Parser parser = new Parser(tokeniser);
+            Parser parser = new Parser(tokeniser, inputFile, includes);
             Program programAst = parser.parse();
             if (parser.getErrorCount() > 0)
                 System.exit(PARSER_FAIL);
@@ -125,7 +158,7 @@ public class Main {
             int errors = sem.analyze(programAst);
             if (errors > 0)
                 System.exit(SEM_FAIL);
-            CodeGenerator codegen = new CodeGenerator();
+            CodeGenerator codegen = new CodeGenerator(regAlloc);
             try {
                 codegen.emitProgram(programAst, outputFile);
             } catch (FileNotFoundException e) {
@@ -136,4 +169,42 @@ public class Main {
             System.exit(MODE_FAIL);
         }
     }
+
+    /**
+     * -gen one function at a time, each generated and written out as soon as it is parsed and analysed.
+     * After a parsing or semantic error the rest of the file is still parsed, so every error is reported,
+     * but nothing more is generated and the output is removed.
+     */
+    private static void generateStreamed(Parser parser, CodeGenerator.RegAlloc regAlloc, File outputFile) {
+        Program header = parser.parseHeader();
+        SemanticAnalyzer sem = new SemanticAnalyzer();
+        int errors = parser.getErrorCount() == 0 ? sem.analyzeHeader(header) : 0;
+
+        CodeGenerator.FunctionStream output = null;
+        if (parser.getErrorCount() == 0 && errors == 0) {
+            try {
+                output = new CodeGenerator(regAlloc).emitHeader(header, outputFile);
+            } catch (FileNotFoundException e) {
+                System.out.println("File "+outputFile.toString()+" does not exist.");
+                System.exit(FILE_NOT_FOUND);
+            }
+        }
+
+        while (parser.hasNextFunDecl()) {
+            FunDecl fd = parser.parseNextFunDecl();
+            if (parser.getErrorCount() > 0)
+                continue; // as with the whole program, nothing is analysed once parsing has failed
+            errors += sem.analyzeFunDecl(fd);
+            if (errors == 0)
+                output.emitFunDecl(fd);
+        }
+        parser.parseEnd();
+
+        if (parser.getErrorCount() > 0 || errors > 0) {
+            if (output != null)
+                output.abandon();
+            System.exit(parser.getErrorCount() > 0 ? PARSER_FAIL : SEM_FAIL);
+        }
+        output.close();
+    }
 }
\ No newline at end of file
@@ -1,12 +1,11 @@
 package ast;
 
 public class ArrayType implements Type {
-    
 
     public final Type element;
     public final int size;
 
-    public ArrayType(int size, Type element){
+    ArrayType(int size, Type element){
         this.element = element;
         this.size = size;
     }
@@ -16,10 +15,10 @@ public class ArrayType implements Type {
     }
 
     public boolean equals(Type other){
-        return other instanceof ArrayType && ((ArrayType)other).element.equals(element) && ((ArrayType)other).size == size;
+        return other == this;
     }
 
     public int bytes(){
         return size*element.bytes();
     }
-}
\ No newline at end of file
+}
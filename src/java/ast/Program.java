@@ -7,11 +7,14 @@ public class Program implements ASTNode {
     public final List<StructTypeDecl> structTypeDecls;
     public final List<VarDecl> varDecls;
     public final List<FunDecl> funDecls;
+    //the types of the compilation the program is from
+    public final Types types;
 
-    public Program(List<StructTypeDecl> structTypeDecls, List<VarDecl> varDecls, List<FunDecl> funDecls) {
+    public Program(List<StructTypeDecl> structTypeDecls, List<VarDecl> varDecls, List<FunDecl> funDecls, Types types) {
         this.structTypeDecls = structTypeDecls;
 	    this.varDecls = varDecls;
 	    this.funDecls = funDecls;
+	    this.types = types;
     }
 
     public <T> T accept(ASTVisitor<T> v) {
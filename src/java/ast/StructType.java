@@ -3,9 +3,11 @@ package ast;
 public class StructType implements Type {
 
     public final String name;
+    //one field for every copy of the program: set by the type checker, then by each pass to its own copy,
+    //so it is always the newest copy's declaration, whichever copy the type is reached from
     public StructTypeDecl declaration;
 
-    public StructType(String name){
+    StructType(String name){
         this.name = name;
     }
 
@@ -14,25 +16,14 @@ public class StructType implements Type {
     }
 
     public boolean equals(Type other){
-        return other instanceof StructType && ((StructType)other).name.equals(name);
+        return other == this;
     }
 
     public int bytes(){
-        int ret = 0;
-        for(VarDecl vd: declaration.fields){
-            ret+= ((vd.type.bytes()-1)/4+1)*4;//aligned size
-        }
-        return ret;
+        return declaration.bytes();
     }
 
     public int getFieldOffset(String field){
-        int offset = 0;
-        for(VarDecl vd: declaration.fields){
-            if(vd.varName.equals(field)){
-                break;
-            }
-            offset += ((vd.type.bytes()-1)/4+1)*4;
-        }
-        return offset;
+        return declaration.getFieldOffset(field);
     }
-}
\ No newline at end of file
+}
@@ -1,6 +1,8 @@
 package ast;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import sem.Scope;
 
 public class StructTypeDecl implements ASTNode {
@@ -9,6 +11,10 @@ public class StructTypeDecl implements ASTNode {
     public Scope scope;
     public StructTypeDecl map =null;
 
+    //the layout, worked out the first time it is asked for, once every field's type is known
+    private volatile Map<String, Integer> fieldOffsets;
+    private int bytes;
+
     public StructTypeDecl(StructType type, List<VarDecl> fields){
         this.fields = fields;
         this.type = type;
@@ -19,4 +25,29 @@ public class StructTypeDecl implements ASTNode {
         return v.visitStructTypeDecl(this);
     }
 
+    public int bytes(){
+        if(fieldOffsets == null)layout();
+        return bytes;
+    }
+
+    /**
+     * @return the offset of the field, or the struct's size if there is no such field
+     */
+    public int getFieldOffset(String field){
+        if(fieldOffsets == null)layout();
+        return fieldOffsets.getOrDefault(field, bytes);
+    }
+
+    private synchronized void layout(){
+        if(fieldOffsets != null)return;
+        Map<String, Integer> offsets = new HashMap<>();
+        int offset = 0;
+        for(VarDecl vd: fields){
+            offsets.putIfAbsent(vd.varName, offset);
+            offset += vd.type.alignedBytes();
+        }
+        bytes = offset;
+        fieldOffsets = offsets;
+    }
+
 }
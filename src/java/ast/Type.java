@@ -1,9 +1,20 @@
 package ast;
 
+/**
+ * Types are interned: there is one PointerType, ArrayType or StructType object for each distinct type
+ * in a compilation, obtained from its Types, so two types are equal exactly when they are the same object.
+ */
 public interface Type extends ASTNode {
 
     public <T> T accept(ASTVisitor<T> v);
     public boolean equals(Type other);
 
     public int bytes(); //returns size in bytes
+
+    /**
+     * @return the size rounded up to whole words, as taken by each variable, argument and struct field
+     */
+    public default int alignedBytes(){
+        return ((bytes()-1)/4+1)*4;
+    }
 }
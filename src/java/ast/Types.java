@@ -0,0 +1,35 @@
+package ast;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The interned types of one compilation: one PointerType, ArrayType or StructType object for each
+ * distinct type in it. The parser creates one Types per compilation. Program.types carries it through
+ * every copy the passes make. The tables are concurrent as functions are type checked in parallel.
+ */
+public class Types {
+
+    private final ConcurrentHashMap<Type, PointerType> pointers = new ConcurrentHashMap<>();
+    //by element, then by size
+    private final ConcurrentHashMap<Type, ConcurrentHashMap<Integer, ArrayType>> arrays = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, StructType> structs = new ConcurrentHashMap<>();
+
+    /**
+     * @return the pointer to type; to no type, as after an error, a pointer equal to no other
+     */
+    public PointerType pointer(Type type){
+        if(type == null){
+            return new PointerType(null);
+        }
+        return pointers.computeIfAbsent(type, PointerType::new);
+    }
+
+    public ArrayType array(int size, Type element){
+        return arrays.computeIfAbsent(element, e -> new ConcurrentHashMap<>())
+            .computeIfAbsent(size, s -> new ArrayType(s, element));
+    }
+
+    public StructType struct(String name){
+        return structs.computeIfAbsent(name, StructType::new);
+    }
+}
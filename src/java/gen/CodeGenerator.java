@@ -3,26 +3,61 @@ package gen;
 import ast.*;
 import gen.asm.AssemblyProgram;
 import regalloc.LessNaiveRegAlloc;
+import regalloc.LinearScanRegAlloc;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
 
 public class CodeGenerator {
 
+    public enum RegAlloc {
+        COLOURING,  //graph colouring with coalescing; better code
+        LINEAR      //linear scan; fast on very large functions
+    }
+
+    private final RegAlloc regAlloc;
+
+    public CodeGenerator() {
+        this(RegAlloc.COLOURING);
+    }
+
+    public CodeGenerator(RegAlloc regAlloc) {
+        this.regAlloc = regAlloc;
+    }
+
+    //the passes that modify the ast before generation, in order
+    private static List<pass.BaseASTPass> passes() {
+        return Arrays.asList(
+            new pass.BaseASTPass(), //For testing; does nothing but duplicate tree
+            new pass.BlockStatements(),
+            new pass.ChangeReturnValuesToPointerArguments(),
+            new pass.HandleStructArgs(),
+            new pass.ChangeStructAssignmentsToFieldAssignments(),
+            new pass.MoveLocalVariablesToFunctionBlock()
+        );
+    }
+
+    //the assembly program with its virtual registers allocated
+    private AssemblyProgram allocate(AssemblyProgram asmProgWithVirtualRegs) {
+        // run the register naive allocator which remove the virtual registers
+        //AssemblyProgram asmProgNoVirtualRegs = NaiveRegAlloc.run(asmProgWithVirtualRegs);
+
+        //NOTE: don't be confused by similar names;
+        //LessNaiveRegAlloc implements the ALGORITHMS SHOWN IN CLASS
+        return regAlloc == RegAlloc.LINEAR
+            ? LinearScanRegAlloc.run(asmProgWithVirtualRegs)
+            : LessNaiveRegAlloc.run(asmProgWithVirtualRegs);
+    }
 
     public void emitProgram(Program astProgram, File outputFile) throws FileNotFoundException {
 
         //modify ast before generation
-        astProgram = (Program)astProgram
-            .accept(new pass.BaseASTPass()) //For testing; does nothing but duplicate tree
-            .accept(new pass.BlockStatements())
-            .accept(new pass.ChangeReturnValuesToPointerArguments())
-            .accept(new pass.HandleStructArgs())
-            .accept(new pass.ChangeStructAssignmentsToFieldAssignments())
-            .accept(new pass.MoveLocalVariablesToFunctionBlock())
-            ;
+        for (pass.BaseASTPass pass : passes())
+            astProgram = (Program) astProgram.accept(pass);
 
         //System.out.println("AST after modification:\n");
 
@@ -43,12 +78,12 @@ public class CodeGenerator {
         ProgramGen progGen = new ProgramGen(asmProgWithVirtualRegs);
         progGen.visitProgram(astProgram);
 
-        // run the register naive allocator which remove the virtual registers
-        //AssemblyProgram asmProgNoVirtualRegs = NaiveRegAlloc.run(asmProgWithVirtualRegs);
+        AssemblyProgram asmProgNoVirtualRegs = allocate(asmProgWithVirtualRegs);
 
-        //NOTE: don't be confused by similar names;
-        //LessNaiveRegAlloc implements the ALGORITHMS SHOWN IN CLASS
-        AssemblyProgram asmProgNoVirtualRegs = LessNaiveRegAlloc.run(asmProgWithVirtualRegs);
+        //the code of the builtins it calls
+        Prelude.Calls calls = new Prelude.Calls();
+        calls.find(asmProgNoVirtualRegs.sections);
+        calls.sections().forEach(asmProgNoVirtualRegs::emitSection);
 
         // print the assembly program
         PrintWriter writer = new PrintWriter(outputFile);
@@ -56,5 +91,87 @@ public class CodeGenerator {
         writer.close();
     }
 
+    /**
+     * Starts generating a program one function at a time, as it is parsed.
+     * @param header the structs, globals and builtin functions, already analysed
+     */
+    public FunctionStream emitHeader(Program header, File outputFile) throws FileNotFoundException {
+        return new FunctionStream(header, outputFile);
+    }
+
+    /**
+     * A program generated one function at a time: each function goes through the ast passes, code
+     * generation and register allocation and is written out as soon as it is given, so only one
+     * function's code is held at once. Functions must be given in program order, so each comes after
+     * those it calls.
+     */
+    public class FunctionStream {
+
+        private final File outputFile;
+        private final PrintWriter writer;
+        private final List<pass.BaseASTPass> passes = passes();
+        private final AssemblyProgram asmProgWithVirtualRegs = new AssemblyProgram();
+        private final ProgramGen progGen = new ProgramGen(asmProgWithVirtualRegs);
+        private final Prelude.Calls calls = new Prelude.Calls();
+
+        private FunctionStream(Program header, File outputFile) throws FileNotFoundException {
+            this.outputFile = outputFile;
+            this.writer = new PrintWriter(outputFile);
 
+            //the passes map the structs and globals once, and each function is mapped onto them
+            for (pass.BaseASTPass pass : passes)
+                header = (Program) header.accept(pass);
+            header.varDecls.forEach(vd -> vd.accept(progGen));
+            header.funDecls.forEach(fd -> fd.accept(progGen));
+            flush();
+        }
+
+        public void emitFunDecl(FunDecl fd) {
+            FunDecl modified = fd;
+            for (pass.BaseASTPass pass : passes)
+                modified = (FunDecl) modified.accept(pass);
+            modified.accept(progGen);
+            flush();
+
+            //callers only need the declaration, so the bodies of every version of it can go
+            for (FunDecl version = fd; ; version = version.map) {
+                version.block = null;
+                if (version.map == version)
+                    break;
+            }
+        }
+
+        //allocates and writes out the sections generated since the last flush
+        private void flush() {
+            List<AssemblyProgram.Section> allocated = allocate(asmProgWithVirtualRegs).sections;
+            calls.find(allocated);
+            print(allocated);
+            asmProgWithVirtualRegs.sections.clear();
+        }
+
+        private void print(List<AssemblyProgram.Section> sections) {
+            sections.forEach(section -> {
+                section.print(writer);
+                writer.println();
+            });
+        }
+
+        /**
+         * Writes out the entry point and the builtins called, and closes the output.
+         */
+        public void close() {
+            progGen.emitMain();
+            flush();
+            print(calls.sections());
+            writer.close();
+        }
+
+        /**
+         * Stops generating after an error, removing the partial output.
+         */
+        public void abandon() {
+            writer.close();
+            outputFile.delete();
+        }
+    }
 }
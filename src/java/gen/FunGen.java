@@ -25,14 +25,14 @@ import gen.asm.*;
  *  
  *  push fp
  *  fp = sp
- *  leave space for locals //TODO: collect locals
+ *  leave space for locals and spilled registers
  *  pushregs
  *  
  *
  *  ...
  *
  *  popregs
- *  remove space for locals
+ *  remove space for locals and spilled registers
  *  pop fp
  *  
  */
@@ -84,7 +84,7 @@ public class FunGen extends BaseGen<Void> {
         section.emitStore("lw", Register.Arch.ra, Register.Arch.sp, 0);
         section.emit("addi", Register.Arch.sp, Register.Arch.sp, 4);
         section.emit(AssemblyItem.Instruction.popRegisters);
-        section.emit("addi", Register.Arch.sp, Register.Arch.sp, offsetCounter); //delete locals
+        section.emit(AssemblyItem.Instruction.freeFrame); //delete locals and spill slots
         section.emitLoad("lw", Register.Arch.fp, Register.Arch.sp, -4);//restore fp
         section.emitJr("jr", Register.Arch.ra);//return
     }
@@ -94,7 +94,7 @@ public class FunGen extends BaseGen<Void> {
         int argOffsetCounter = -4; //0 is original fp
         for(VarDecl vd: decl.params){
             vd.memory = new VarDecl.Memory(argOffsetCounter);
-            argOffsetCounter -= ((vd.type.bytes()-1)/4+1)*4; //go back enough to fit this argument
+            argOffsetCounter -= vd.type.alignedBytes(); //go back enough to fit this argument
         }
         return -argOffsetCounter+4;
     }
@@ -115,8 +115,10 @@ public class FunGen extends BaseGen<Void> {
             vd.accept(this); //increments offset counter by word-aligned sizeof(vd)
         }
 
-        //space on the stack for variables:
-        section.emit("subi", Register.Arch.sp, Register.Arch.sp, offsetCounter);
+        //space on the stack for variables; the register allocator adds its spill slots below them
+        //and sizes the frame once it is done
+        section.frameSize = offsetCounter;
+        section.emit(AssemblyItem.Instruction.allocateFrame);
 
         //pushregs
         section.emit(AssemblyItem.Instruction.pushRegisters);
@@ -139,148 +141,14 @@ public class FunGen extends BaseGen<Void> {
         emitEpilogue();
     }
 
-    private boolean emitBuiltins(String name){
-        if(name.equals("mcmalloc")){
-            section.emitStore("sw", Register.Arch.a0, Register.Arch.sp, -4);
-            section.emitStore("sw", Register.Arch.a1, Register.Arch.sp, -8);
-            section.emitStore("sw", Register.Arch.a2, Register.Arch.sp, -12);
-            section.emitStore("sw", Register.Arch.v0, Register.Arch.sp, -16);
-
-            section.emitLoad("lw", Register.Arch.a1, Register.Arch.sp, 0);//return value location (void**)
-            section.emitLoad("lw", Register.Arch.a0, Register.Arch.sp, 4);//amount of memory
-
-            section.emit("subi", Register.Arch.sp, Register.Arch.sp, 16);
-
-            section.emit("addi", Register.Arch.v0, Register.Arch.zero, 9);
-
-            section.emit(AssemblyItem.Instruction.syscall);
-
-            section.emitStore("sw", Register.Arch.v0, Register.Arch.a1, 0); //a1 is return location
-
-            section.emit("addi", Register.Arch.sp, Register.Arch.sp, 16);
-            section.emitLoad("lw", Register.Arch.a0, Register.Arch.sp, -4);
-            section.emitLoad("lw", Register.Arch.a1, Register.Arch.sp, -8);
-            section.emitLoad("lw", Register.Arch.a2, Register.Arch.sp, -12);
-            section.emitLoad("lw", Register.Arch.v0, Register.Arch.sp, -16);
-
-            section.emitJr("jr", Register.Arch.ra);
-        }else if(name.equals("read_i")){
-            section.emitStore("sw", Register.Arch.a0, Register.Arch.sp, -4);
-            section.emitStore("sw", Register.Arch.a1, Register.Arch.sp, -8);
-            section.emitStore("sw", Register.Arch.a2, Register.Arch.sp, -12);
-            section.emitStore("sw", Register.Arch.v0, Register.Arch.sp, -16);
-
-            section.emitLoad("lw", Register.Arch.a0, Register.Arch.sp, 0);
-
-            section.emit("subi", Register.Arch.sp, Register.Arch.sp, 16);
-
-            section.emit("addi", Register.Arch.v0, Register.Arch.zero, 5);
-
-            section.emit(AssemblyItem.Instruction.syscall);
-
-            section.emitStore("sw", Register.Arch.v0, Register.Arch.a0, 0); //a0 is return location
-
-            section.emit("addi", Register.Arch.sp, Register.Arch.sp, 16);
-            section.emitLoad("lw", Register.Arch.a0, Register.Arch.sp, -4);
-            section.emitLoad("lw", Register.Arch.a1, Register.Arch.sp, -8);
-            section.emitLoad("lw", Register.Arch.a2, Register.Arch.sp, -12);
-            section.emitLoad("lw", Register.Arch.v0, Register.Arch.sp, -16);
-
-            section.emitJr("jr", Register.Arch.ra);
-        }else if(name.equals("read_c")){
-            section.emitStore("sw", Register.Arch.a0, Register.Arch.sp, -4);
-            section.emitStore("sw", Register.Arch.a1, Register.Arch.sp, -8);
-            section.emitStore("sw", Register.Arch.a2, Register.Arch.sp, -12);
-            section.emitStore("sw", Register.Arch.v0, Register.Arch.sp, -16);
-
-            section.emitLoad("lw", Register.Arch.a0, Register.Arch.sp, 0);
-
-            section.emit("subi", Register.Arch.sp, Register.Arch.sp, 16);
-
-            section.emit("addi", Register.Arch.v0, Register.Arch.zero, 12);
-
-            section.emit(AssemblyItem.Instruction.syscall);
-
-            section.emitStore("sw", Register.Arch.v0, Register.Arch.a0, 0); //a0 is return location
-
-            section.emit("addi", Register.Arch.sp, Register.Arch.sp, 16);
-            section.emitLoad("lw", Register.Arch.a0, Register.Arch.sp, -4);
-            section.emitLoad("lw", Register.Arch.a1, Register.Arch.sp, -8);
-            section.emitLoad("lw", Register.Arch.a2, Register.Arch.sp, -12);
-            section.emitLoad("lw", Register.Arch.v0, Register.Arch.sp, -16);
-
-            section.emitJr("jr", Register.Arch.ra);
-        }else if(name.equals("print_i")){
-            section.emitStore("sw", Register.Arch.a0, Register.Arch.sp, -4);
-            section.emitStore("sw", Register.Arch.a1, Register.Arch.sp, -8);
-            section.emitStore("sw", Register.Arch.a2, Register.Arch.sp, -12);
-            section.emitStore("sw", Register.Arch.v0, Register.Arch.sp, -16);
-
-            section.emitLoad("lw", Register.Arch.a0, Register.Arch.sp, 0);
-
-            section.emit("subi", Register.Arch.sp, Register.Arch.sp, 16);
-
-            section.emit("addi", Register.Arch.v0, Register.Arch.zero, 1);
-
-            section.emit(AssemblyItem.Instruction.syscall);
-
-            section.emit("addi", Register.Arch.sp, Register.Arch.sp, 16);
-            section.emitLoad("lw", Register.Arch.a0, Register.Arch.sp, -4);
-            section.emitLoad("lw", Register.Arch.a1, Register.Arch.sp, -8);
-            section.emitLoad("lw", Register.Arch.a2, Register.Arch.sp, -12);
-            section.emitLoad("lw", Register.Arch.v0, Register.Arch.sp, -16);
-
-            section.emitJr("jr", Register.Arch.ra);
-        }else if(name.equals("print_c")){
-            section.emitStore("sw", Register.Arch.a0, Register.Arch.sp, -4);
-            section.emitStore("sw", Register.Arch.a1, Register.Arch.sp, -8);
-            section.emitStore("sw", Register.Arch.a2, Register.Arch.sp, -12);
-            section.emitStore("sw", Register.Arch.v0, Register.Arch.sp, -16);
-
-            section.emitLoad("lw", Register.Arch.a0, Register.Arch.sp, 0);
-
-            section.emit("subi", Register.Arch.sp, Register.Arch.sp, 16);
-
-            section.emit("addi", Register.Arch.v0, Register.Arch.zero, 11);
-
-            section.emit(AssemblyItem.Instruction.syscall);
-
-            section.emit("addi", Register.Arch.sp, Register.Arch.sp, 16);
-            section.emitLoad("lw", Register.Arch.a0, Register.Arch.sp, -4);
-            section.emitLoad("lw", Register.Arch.a1, Register.Arch.sp, -8);
-            section.emitLoad("lw", Register.Arch.a2, Register.Arch.sp, -12);
-            section.emitLoad("lw", Register.Arch.v0, Register.Arch.sp, -16);
-
-            section.emitJr("jr", Register.Arch.ra);
-        }else if(name.equals("print_s")){
-            section.emitStore("sw", Register.Arch.a0, Register.Arch.sp, -4);
-            section.emitStore("sw", Register.Arch.a1, Register.Arch.sp, -8);
-            section.emitStore("sw", Register.Arch.a2, Register.Arch.sp, -12);
-            section.emitStore("sw", Register.Arch.v0, Register.Arch.sp, -16);
-
-            section.emitLoad("lw", Register.Arch.a0, Register.Arch.sp, 0);
-
-            section.emit("subi", Register.Arch.sp, Register.Arch.sp, 16);
-
-            section.emit("addi", Register.Arch.v0, Register.Arch.zero, 4);
-
-            section.emit(AssemblyItem.Instruction.syscall);
-
-            section.emit("addi", Register.Arch.sp, Register.Arch.sp, 16);
-            section.emitLoad("lw", Register.Arch.a0, Register.Arch.sp, -4);
-            section.emitLoad("lw", Register.Arch.a1, Register.Arch.sp, -8);
-            section.emitLoad("lw", Register.Arch.a2, Register.Arch.sp, -12);
-            section.emitLoad("lw", Register.Arch.v0, Register.Arch.sp, -16);
-
-            section.emitJr("jr", Register.Arch.ra);
-        }else{
-            return false;
-        }
-        return true;
-    }
-
     @Override
     public Void visitFunDecl(FunDecl p) {
+        AssemblyItem.Label builtin = Prelude.label(p.name);
+        if(builtin != null){
+            p.label = builtin; //its code is added after allocation, if called; see Prelude.Calls
+            return null;
+        }
+
         section = asmProg.newSection(AssemblyProgram.Section.Type.TEXT);
 
         String astCode = ASTPrinter.printNode(p);
@@ -297,10 +165,8 @@ public class FunGen extends BaseGen<Void> {
         p.label = new AssemblyItem.Label(p.name);
         section.emit(p.label);
 
-        if(!emitBuiltins(p.name)){
-            findArgumentOffsets(p);
-            visitFunctionBlock(p.block);
-        }
+        findArgumentOffsets(p);
+        visitFunctionBlock(p.block);
 
         return null;
     }
@@ -308,7 +174,7 @@ public class FunGen extends BaseGen<Void> {
     @Override
     public Void visitVarDecl(VarDecl vd) {
 
-        offsetCounter += ((vd.type.bytes()-1)/4+1)*4;
+        offsetCounter += vd.type.alignedBytes();
 
         if(vd.memory == null)
             vd.memory = new VarDecl.Memory(offsetCounter);
@@ -0,0 +1,168 @@
+package gen;
+
+import ast.BaseType;
+import ast.Block;
+import ast.FunDecl;
+import ast.Stmt;
+import ast.Type;
+import ast.Types;
+import ast.VarDecl;
+import gen.asm.AssemblyItem;
+import gen.asm.AssemblyProgram;
+import gen.asm.Register;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The builtin functions every program can call without defining them: their declarations, which the
+ * semantic analyser puts in front of the program's functions, and their code.
+ *
+ * A builtin's code only uses architectural registers and is the same in every program, so it is built
+ * once, as a text section under a label of its own, and needs no register allocation. It is only added
+ * to the programs that call it; see Calls.
+ */
+public final class Prelude {
+
+    private static final Register a0 = Register.Arch.a0, a1 = Register.Arch.a1, a2 = Register.Arch.a2;
+    private static final Register v0 = Register.Arch.v0, sp = Register.Arch.sp, zero = Register.Arch.zero;
+
+    private static final Map<String, AssemblyItem.Label> labels = new HashMap<>();
+    //by label, in the order the builtins are declared
+    private static final Map<AssemblyItem.Label, AssemblyProgram.Section> sections = new LinkedHashMap<>();
+
+    //the code below is never changed once built
+    static {
+        AssemblyProgram.Section mcmalloc = begin("mcmalloc");
+        mcmalloc.emitLoad("lw", a1, sp, 0);//return value location (void**)
+        mcmalloc.emitLoad("lw", a0, sp, 4);//amount of memory
+        mcmalloc.emit("subi", sp, sp, 16);
+        mcmalloc.emit("addi", v0, zero, 9);
+        mcmalloc.emit(AssemblyItem.Instruction.syscall);
+        mcmalloc.emitStore("sw", v0, a1, 0); //a1 is return location
+        end(mcmalloc);
+
+        read("read_i", 5);
+        read("read_c", 12);
+        print("print_c", 11);
+        print("print_i", 1);
+        print("print_s", 4);
+    }
+
+    private Prelude() {
+    }
+
+    /**
+     * @return a new declaration of each builtin, with the types of the program, in the order they go
+     * in front of its functions
+     */
+    public static List<FunDecl> declarations(Types types) {
+        List<FunDecl> builtins = new ArrayList<FunDecl>();
+        builtins.add(declaration(types.pointer(BaseType.VOID), "mcmalloc", new VarDecl(BaseType.INT, "size")));
+        builtins.add(declaration(BaseType.INT, "read_i"));
+        builtins.add(declaration(BaseType.CHAR, "read_c"));
+        builtins.add(declaration(BaseType.VOID, "print_c", new VarDecl(BaseType.CHAR, "c")));
+        builtins.add(declaration(BaseType.VOID, "print_i", new VarDecl(BaseType.INT, "i")));
+        builtins.add(declaration(BaseType.VOID, "print_s", new VarDecl(types.pointer(BaseType.CHAR), "s")));
+        return builtins;
+    }
+
+    /**
+     * @return the label of the builtin's code, or null if there is no builtin of that name
+     */
+    public static AssemblyItem.Label label(String name) {
+        return labels.get(name);
+    }
+
+    /**
+     * The builtins called by a program, found from its code, so only theirs is added to it.
+     */
+    public static class Calls {
+
+        private final Set<AssemblyItem.Label> called = new HashSet<>();
+
+        /**
+         * Notes the builtins jumped to from the sections.
+         */
+        public void find(List<AssemblyProgram.Section> code) {
+            for (AssemblyProgram.Section section : code) {
+                if (section.type != AssemblyProgram.Section.Type.TEXT)
+                    continue;
+                for (AssemblyItem item : section.items) {
+                    if (item instanceof AssemblyItem.Instruction.Jump
+                        && sections.containsKey(((AssemblyItem.Instruction.Jump) item).label))
+                        called.add(((AssemblyItem.Instruction.Jump) item).label);
+                }
+            }
+        }
+
+        /**
+         * @return the code of each builtin called from the sections given so far
+         */
+        public List<AssemblyProgram.Section> sections() {
+            List<AssemblyProgram.Section> ret = new ArrayList<>();
+            for (Map.Entry<AssemblyItem.Label, AssemblyProgram.Section> builtin : sections.entrySet()) {
+                if (called.contains(builtin.getKey()))
+                    ret.add(builtin.getValue());
+            }
+            return ret;
+        }
+    }
+
+    private static FunDecl declaration(Type type, String name, VarDecl... params) {
+        return new FunDecl(type, name, Arrays.asList(params),
+            new Block(new ArrayList<VarDecl>(), new ArrayList<Stmt>()));
+    }
+
+    //reads from the service into the return location, the argument
+    private static void read(String name, int service) {
+        AssemblyProgram.Section section = begin(name);
+        section.emitLoad("lw", a0, sp, 0);
+        section.emit("subi", sp, sp, 16);
+        section.emit("addi", v0, zero, service);
+        section.emit(AssemblyItem.Instruction.syscall);
+        section.emitStore("sw", v0, a0, 0); //a0 is return location
+        end(section);
+    }
+
+    //gives the argument to the service
+    private static void print(String name, int service) {
+        AssemblyProgram.Section section = begin(name);
+        section.emitLoad("lw", a0, sp, 0);
+        section.emit("subi", sp, sp, 16);
+        section.emit("addi", v0, zero, service);
+        section.emit(AssemblyItem.Instruction.syscall);
+        end(section);
+    }
+
+    //the label, then saving the registers a builtin uses
+    private static AssemblyProgram.Section begin(String name) {
+        AssemblyProgram.Section section = new AssemblyProgram.Section(AssemblyProgram.Section.Type.TEXT);
+        AssemblyItem.Label label = new AssemblyItem.Label(name);
+        section.emit("builtin " + name);
+        section.emit(label);
+        section.emitStore("sw", a0, sp, -4);
+        section.emitStore("sw", a1, sp, -8);
+        section.emitStore("sw", a2, sp, -12);
+        section.emitStore("sw", v0, sp, -16);
+        labels.put(name, label);
+        sections.put(label, section);
+        return section;
+    }
+
+    //after the service: restoring the registers, then returning
+    private static void end(AssemblyProgram.Section section) {
+        section.emit("addi", sp, sp, 16);
+        section.emitLoad("lw", a0, sp, -4);
+        section.emitLoad("lw", a1, sp, -8);
+        section.emitLoad("lw", a2, sp, -12);
+        section.emitLoad("lw", v0, sp, -16);
+        section.emitJr("jr", Register.Arch.ra);
+    }
+}
@@ -16,6 +16,9 @@ public class ProgramGen extends BaseGen<Void> {
 
     private final AssemblyProgram.Section dataSection ;
 
+    //the label of the c program's main function, once generated; the entry point wraps it
+    private AssemblyItem.Label mainLabel = null;
+
     public ProgramGen(AssemblyProgram asmProg) {
         this.asmProg = asmProg;
         this.dataSection = asmProg.newSection(AssemblyProgram.Section.Type.DATA);
@@ -40,13 +43,26 @@ public class ProgramGen extends BaseGen<Void> {
     @Override
     public Void visitFunDecl(FunDecl fd) {
         // call the visitor specialized for handling function declaration
-        return new FunGen(asmProg).visitFunDecl(fd);
+        new FunGen(asmProg).visitFunDecl(fd);
+        //TODO: add semantic pass to ensure only 1 main
+        if(fd.name.equals("main")){
+            mainLabel = fd.label;
+        }
+        return null;
     }
 
     @Override
     public Void visitProgram(Program p) {
         p.varDecls.forEach(vd -> vd.accept(this));
         p.funDecls.forEach(fd -> fd.accept(this));
+        emitMain();
+        return null;
+    }
+
+    /**
+     * Emits the entry point that calls main, once every function has been generated.
+     */
+    public void emitMain() {
         AssemblyProgram.Section mainData = asmProg.newSection(AssemblyProgram.Section.Type.DATA);
 
 
@@ -58,20 +74,17 @@ public class ProgramGen extends BaseGen<Void> {
         main.emit(new AssemblyItem.Directive.Globl("main")); //.globl main
         main.emit(AssemblyItem.Label.main);
         
-        if(AssemblyItem.Label.getMainLabel() == null){
+        if(mainLabel == null){
             System.out.println("No main function found");
-            return null;
+            return;
         }
 
-        main.emitJump("jal", AssemblyItem.Label.getMainLabel());
+        main.emitJump("jal", mainLabel);
 
         // int, char, and pointer returns are in v0
         main.emit("add", Register.Arch.a0, Register.Arch.zero, Register.Arch.zero); //copy value to a0, where it will be returned
         main.emit("addi", Register.Arch.v0, Register.Arch.zero, 17); //syscall for exit with value
         main.emit(AssemblyItem.Instruction.syscall);
-
-
-        return null;
     }
 
     @Override
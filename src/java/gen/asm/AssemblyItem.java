@@ -2,6 +2,7 @@ package gen.asm;
 
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class AssemblyItem {
     public abstract void accept(AssemblyItemVisitor v);
@@ -136,6 +137,56 @@ public abstract class AssemblyItem {
             }
         };
 
+        /**
+         * This "fake" instruction should move $sp below the function's stack frame, once its size is known.
+         */
+        public static final Instruction allocateFrame = new Instruction("allocFrame") {
+            @Override
+            public Register def() {
+                return null;
+            }
+
+            @Override
+            public List<Register> uses() {
+                return new LinkedList<>();
+            }
+
+            @Override
+            public gen.asm.AssemblyItem.Instruction rebuild(Map<Register, Register> regMap) {
+                return this;
+            }
+
+            @Override
+            public String toString() {
+                return opcode;
+            }
+        };
+
+        /**
+         * This "fake" instruction should move $sp back above the function's stack frame.
+         */
+        public static final Instruction freeFrame = new Instruction("freeFrame") {
+            @Override
+            public Register def() {
+                return null;
+            }
+
+            @Override
+            public List<Register> uses() {
+                return new LinkedList<>();
+            }
+
+            @Override
+            public gen.asm.AssemblyItem.Instruction rebuild(Map<Register, Register> regMap) {
+                return this;
+            }
+
+            @Override
+            public String toString() {
+                return opcode;
+            }
+        };
+
         public static final Instruction syscall = new Instruction("syscall"){
 
             @Override
@@ -507,20 +558,15 @@ public abstract class AssemblyItem {
     }
 
     public static class Label extends AssemblyItem {
-        private static Label mainLabel = null;
-        private static int cnt = 0;
-        private final int id = cnt++;
+        //labels can be made from several threads at once
+        private static final AtomicInteger cnt = new AtomicInteger();
+        private final int id = cnt.getAndIncrement();
         private final String name;
         public Label() {
             this.name = "";
         }
         public Label(String name) {
             this.name = name;
-
-            //TODO: add semantic pass to ensure only 1 main
-            if(name.equals("main")){
-                mainLabel = this;
-            }
         }
 
         public String toString() {
@@ -531,12 +577,6 @@ public abstract class AssemblyItem {
             v.visitLabel(this);
         }
 
-        //returns the label generated from a c program's main function. 
-        // This is not the label of the main funtion of the assembly program, it will be wrapped
-        public static Label getMainLabel(){
-            return mainLabel;
-        }
-
         public static final Label main = new Label(){
             @Override
             public String toString() {
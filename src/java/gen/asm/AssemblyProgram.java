@@ -17,6 +17,20 @@ public class AssemblyProgram {
 
         public final List<AssemblyItem> items = new ArrayList<AssemblyItem>();
 
+        /**
+         * Bytes of stack frame below $fp for the function in this text section: its locals, then the
+         * slots of any registers spilled by the allocator. Final once registers are allocated.
+         */
+        public int frameSize = 0;
+
+        /**
+         * @return $fp offset of a new word at the bottom of the frame
+         */
+        public int allocateFrameWord() {
+            frameSize += 4;
+            return -frameSize;
+        }
+
 
         public void emit(AssemblyItem.Instruction instruction) {
             assert this.type == Type.TEXT;
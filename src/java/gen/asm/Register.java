@@ -1,5 +1,7 @@
 package gen.asm;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * @author cdubach
  */
@@ -8,10 +10,11 @@ public abstract class Register {
     abstract public boolean isVirtual();
 
     static public class Virtual extends Register {
-        private static int cnt = 0;
+        //registers can be made from several threads at once
+        private static final AtomicInteger cnt = new AtomicInteger();
         private final int id;
         public Virtual() {
-            this.id = cnt++;
+            this.id = cnt.getAndIncrement();
         }
         public String toString() {
             return "v"+id;
@@ -71,6 +74,14 @@ public abstract class Register {
         public boolean isVirtual() {
             return false;
         }
+
+        /**
+         * @return true for $s0-$s7, which a function must give back as it found them;
+         * any other register may be changed by a call
+         */
+        public boolean isCalleeSaved() {
+            return num >= 16 && num <= 23;
+        }
     }
 
 }
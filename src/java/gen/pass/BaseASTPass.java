@@ -7,6 +7,9 @@ import java.util.stream.Collectors;
 
 public class BaseASTPass implements ASTVisitor<ASTNode>{
 
+    //those of the program passed, which its functions are passed after
+    protected Types types;
+
     public ASTNode visitBaseType(BaseType bt){
         return bt;
     }
@@ -52,10 +55,12 @@ public class BaseASTPass implements ASTVisitor<ASTNode>{
     }
 
     public ASTNode visitProgram(Program p){
+        types = p.types;
         return new Program(
             p.structTypeDecls.stream().map(sd -> (StructTypeDecl) sd.accept(this)).collect(Collectors.toList()),
                 p.varDecls.stream().map(vd -> (VarDecl) vd.accept(this)).collect(Collectors.toList()),
-                p.funDecls.stream().map(fd -> (FunDecl) fd.accept(this)).collect(Collectors.toList())
+                p.funDecls.stream().map(fd -> (FunDecl) fd.accept(this)).collect(Collectors.toList()),
+                types
             );
     }
 
@@ -80,11 +85,11 @@ public class BaseASTPass implements ASTVisitor<ASTNode>{
     }
 
     public ASTNode visitArrayType(ArrayType at){
-        return new ArrayType(at.size, (Type)at.element.accept(this));
+        return types.array(at.size, (Type)at.element.accept(this));
     }
 
     public ASTNode visitPointerType(PointerType pt){
-        return new PointerType((Type)pt.type.accept(this));
+        return types.pointer((Type)pt.type.accept(this));
     }
 
     public ASTNode visitAssign(Assign e){
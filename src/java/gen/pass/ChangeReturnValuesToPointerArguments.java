@@ -24,7 +24,7 @@ public class ChangeReturnValuesToPointerArguments extends BaseASTPass {
         }
         p.modified = true;
 
-        Type returnArgumentType = new PointerType(returnType);
+        Type returnArgumentType = types.pointer(returnType);
         returnArgumentDecl = new VarDecl(returnArgumentType, "return"); 
         //return is a reserved word in c, can't name variable that (I can now though)
 
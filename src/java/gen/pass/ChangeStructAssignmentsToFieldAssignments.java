@@ -29,7 +29,7 @@ public class ChangeStructAssignmentsToFieldAssignments extends BaseASTPass {
         Expr lvalue = (Expr)a.lvalue.accept(this);
         Expr rvalue = (Expr)a.rvalue.accept(this);
 
-        Type structPointerType = new PointerType(structType);
+        Type structPointerType = types.pointer(structType);
 
         VarDecl laddr = new VarDecl(structPointerType, "laddr");
         extraLocals.add(laddr);
@@ -19,7 +19,7 @@ public class HandleStructArgs extends BaseASTPass {
                     newLocals.add(qp);
                     Type oldType = q.type;
 
-                    q = new VarDecl(new PointerType(q.type), q.varName);
+                    q = new VarDecl(types.pointer(q.type), q.varName);
 
                     VarExpr qpExpr = new VarExpr(q.varName);
                     qpExpr.vd = qp;
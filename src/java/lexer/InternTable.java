@@ -0,0 +1,76 @@
+package lexer;
+
+/**
+ * Identifiers by their characters in the source buffer, so each distinct name becomes a String only once
+ * and every occurrence of it is the same object. Names are also interned with the JVM, so they are
+ * identical to the same names written as literals in the compiler.
+ *
+ * Open addressing with linear probing over a power of two table.
+ */
+final class InternTable {
+
+    private String[] names = new String[256];
+    private int[] hashes = new int[256];
+    private int size = 0;
+
+    /**
+     * @return the name made of the characters from start up to, not including, end
+     */
+    String intern(char[] buffer, int start, int end) {
+        //same hash as String.hashCode
+        int hash = 0;
+        for (int i = start; i != end; i++) {
+            hash = 31*hash + buffer[i];
+        }
+
+        int mask = names.length - 1;
+        int slot = spread(hash) & mask;
+        while (names[slot] != null) {
+            if (hashes[slot] == hash && matches(names[slot], buffer, start, end)) {
+                return names[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        String name = new String(buffer, start, end - start).intern();
+        names[slot] = name;
+        hashes[slot] = hash;
+        size++;
+        if (2*size > names.length) {
+            grow();
+        }
+        return name;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String name, char[] buffer, int start, int end) {
+        if (name.length() != end - start)
+            return false;
+        for (int i = start; i != end; i++) {
+            if (name.charAt(i - start) != buffer[i])
+                return false;
+        }
+        return true;
+    }
+
+    private void grow() {
+        String[] oldNames = names;
+        int[] oldHashes = hashes;
+        names = new String[oldNames.length * 2];
+        hashes = new int[oldNames.length * 2];
+        int mask = names.length - 1;
+        for (int i = 0; i != oldNames.length; i++) {
+            if (oldNames[i] == null)
+                continue;
+            int slot = spread(oldHashes[i]) & mask;
+            while (names[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            names[slot] = oldNames[i];
+            hashes[slot] = oldHashes[i];
+        }
+    }
+}
@@ -1,70 +1,56 @@
 package lexer;
 
 import java.io.*;
+import java.nio.charset.Charset;
 
 /**
+ * The whole source is read in one go into a char[] followed by a sentinel, so the tokeniser can
+ * index into it directly and cut lexemes out as ranges rather than asking for one character at a time.
+ *
  * @author cdubach
  */
 public class Scanner {
 
-    private BufferedReader input;
-    private int peeked = -1;
+    /**
+     * Stored after the last character of the source: a noncharacter, so it can't be mistaken for
+     * a letter, digit or whitespace.
+     */
+    public static final char SENTINEL = '\uFFFF';
 
-    private int line = 1;
-    private int column = 0;
+    private final char[] buffer;
+    private final int length;
 
     public Scanner(File source) throws FileNotFoundException {
-        input = new BufferedReader(new FileReader(source));
+        try (InputStream in = new FileInputStream(source)) {
+            //decoded the same way a FileReader would
+            String text = new String(in.readAllBytes(), Charset.defaultCharset());
+            this.length = text.length();
+            this.buffer = new char[length + 1];
+            text.getChars(0, length, buffer, 0);
+            buffer[length] = SENTINEL;
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
 
-    public int getColumn() {
-        return column;
+    /**
+     * @return the source, with SENTINEL at index length()
+     */
+    public char[] buffer() {
+        return buffer;
     }
 
-    public int getLine() {
-        return line;
+    public int length() {
+        return length;
     }
 
-    public char peek() throws IOException {
-        if (peeked != -1)
-            return (char)peeked;
-
-        int r = input.read();
-        if (r == -1)
-            throw new EOFException();
-
-        peeked = r;
-        return (char) r;
+    /**
+     * @return the source characters from index from up to, not including, index to
+     */
+    public String slice(int from, int to) {
+        return new String(buffer, from, to - from);
     }
-
-
-    public char next() throws IOException {
-        char r;
-        if (peeked != -1) {
-            r = (char) peeked;
-            peeked = -1;
-        } else {
-            int i = input.read();
-            if (i == -1)
-                throw new EOFException();
-            r = (char) i;
-        }
-
-        if (r == '\n' || r == '\r') {
-            line++;
-            column =0;
-        } else {
-            column++;
-        }
-        return r;
-    }
-
-
-    public void close() throws IOException {
-        input.close();
-    }
-
-
-
 }
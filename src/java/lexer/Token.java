@@ -78,7 +78,8 @@ public class Token {
 
     public final TokenClass tokenClass;
     public final String data;
-    public final Position position;
+    // packed, see util.Position
+    public final long position;
 
     public Token(TokenClass type, int lineNum, int colNum) {
         this(type, "", lineNum, colNum);
@@ -88,7 +89,7 @@ public class Token {
         assert (tokenClass != null);
         this.tokenClass = tokenClass;
         this.data = data;
-        this.position = new Position(lineNum, colNum);
+        this.position = Position.of(lineNum, colNum);
     }
 
 
@@ -0,0 +1,156 @@
+package lexer;
+
+import lexer.Token.TokenClass;
+import util.Position;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tokens held as parallel arrays rather than as objects: the class of each token as a byte, the range of
+ * its lexeme in the source buffer, and its line and column packed into a long by util.Position.
+ * Lexemes are only made into Strings when asked for.
+ *
+ * Tokens are indexed from 0. The stream ends with the end of file token, which is also returned for
+ * every index past it.
+ */
+public final class TokenStream {
+
+    private static final TokenClass[] CLASSES = TokenClass.values();
+
+    private final Tokeniser tokeniser;
+
+    private byte[] kinds = new byte[1024];
+    private int[] starts = new int[1024];
+    private int[] ends = new int[1024];
+    private long[] positions = new long[1024];
+    private int size = 0;
+    private boolean ended = false;
+
+    // lexing errors of tokens scanned ahead of the parser, printed as it reaches them
+    private final Map<Integer, String> errors = new HashMap<>();
+    // the furthest token handed out so far
+    private int reached = -1;
+
+    TokenStream(Tokeniser tokeniser) {
+        this.tokeniser = tokeniser;
+    }
+
+    private void reserve(int capacity) {
+        if (capacity > kinds.length) {
+            capacity = Math.max(capacity, 2*kinds.length);
+            kinds = Arrays.copyOf(kinds, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+        }
+    }
+
+    void add(TokenClass kind, int start, int end, int line, int column) {
+        add(kind, start, end, line, column, null);
+    }
+
+    /**
+     * @param error the lexing error found scanning the token, to be printed when the parser reaches it; or null
+     */
+    void add(TokenClass kind, int start, int end, int line, int column, String error) {
+        reserve(size + 1);
+        kinds[size] = (byte) kind.ordinal();
+        starts[size] = start;
+        ends[size] = end;
+        positions[size] = Position.of(line, column);
+        if (error != null)
+            errors.put(size, error);
+        size++;
+        ended = kind == TokenClass.EOF && size > 1 && kinds[size - 2] == TokenClass.EOF.ordinal();
+    }
+
+    /**
+     * Adds the tokens of a part of the file scanned by another tokeniser.
+     */
+    void append(TokenStream part) {
+        reserve(size + part.size);
+        System.arraycopy(part.kinds, 0, kinds, size, part.size);
+        System.arraycopy(part.starts, 0, starts, size, part.size);
+        System.arraycopy(part.ends, 0, ends, size, part.size);
+        System.arraycopy(part.positions, 0, positions, size, part.size);
+        for (Map.Entry<Integer, String> error : part.errors.entrySet())
+            errors.put(size + error.getKey(), error.getValue());
+        size += part.size;
+        ended = part.ended;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int errorCount() {
+        return errors.size();
+    }
+
+    //index of token i, scanning up to it if needed
+    private int at(int i) {
+        while (size <= i && !ended) {
+            tokeniser.scanInto(this);
+            if (kinds[size - 1] == TokenClass.EOF.ordinal()) {
+                //the first end of file may be found inside a comment, and placed at its start;
+                //after it the tokeniser keeps returning the one at the end of the file
+                tokeniser.scanInto(this);
+            }
+        }
+        int index = Math.min(i, size - 1);
+        if (index > reached) {
+            for (int t = reached + 1; t <= index && !errors.isEmpty(); t++) {
+                String error = errors.remove(t);
+                if (error != null)
+                    System.out.println(error);
+            }
+            reached = index;
+        }
+        return index;
+    }
+
+    /**
+     * Scans the rest of the file.
+     * @return this stream
+     */
+    public TokenStream fill() {
+        at(Integer.MAX_VALUE);
+        return this;
+    }
+
+    //at() may grow the arrays, so it is called before any of them is read
+
+    public TokenClass kind(int i) {
+        //looking ahead mostly reads tokens already handed out
+        if (i <= reached)
+            return CLASSES[kinds[i]];
+        i = at(i);
+        return CLASSES[kinds[i]];
+    }
+
+    public String lexeme(int i) {
+        i = at(i);
+        return tokeniser.lexeme(CLASSES[kinds[i]], starts[i], ends[i]);
+    }
+
+    public int line(int i) {
+        i = at(i);
+        return Position.line(positions[i]);
+    }
+
+    public int column(int i) {
+        i = at(i);
+        return Position.column(positions[i]);
+    }
+
+    /**
+     * @return token i as an object, for printing
+     */
+    public Token token(int i) {
+        i = at(i);
+        TokenClass kind = CLASSES[kinds[i]];
+        return new Token(kind, tokeniser.lexeme(kind, starts[i], ends[i]), line(i), column(i));
+    }
+}
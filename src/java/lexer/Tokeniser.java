@@ -2,48 +2,156 @@ package lexer;
 
 import lexer.Token.TokenClass;
 
-import java.io.EOFException;
-import java.io.IOException;
+import java.util.stream.IntStream;
 
 /**
+ * Works straight on the scanner's buffer: the sentinel after the last character stops every scanning
+ * loop, so running out of input is an ordinary check of the position rather than an exception, and
+ * whitespace and comments are skipped by looping rather than by asking for the next token again.
+ *
  * @author cdubach
  */
 public class Tokeniser {
 
     private Scanner scanner;
 
+    //the file named in errors, for a header; null for the program, whose errors give just the position
+    private final String file;
+
+    private final char[] buffer;
+    private final int length;
+    private int position = 0;
+
+    private int line = 1;
+    private int column = 0;
+
+    //the token found by scan(): where it starts, and where its lexeme lies in the buffer
+    private int tokenStart;
+    private int tokenLine;
+    private int tokenColumn;
+    private int dataStart;
+    private int dataEnd;
+
+    //each distinct identifier is made into a String once
+    private final InternTable names = new InternTable();
+
+    //files at least this long are tokenised in parallel, in chunks of about this length
+    private static final int PARALLEL_LENGTH = 1 << 20;
+    private static final int CHUNK_LENGTH = 1 << 18;
+
+    //a tokeniser of one chunk keeps the error of the token it scanned, rather than printing it
+    private final boolean deferErrors;
+    private String deferredError;
+
+    //the stream of a chunk tokeniser, and where the first token it scanned and the first past its end start
+    private TokenStream part;
+    private int entry = -1;
+    private int exit = -1;
+
     private int error = 0;
     public int getErrorCount() {
 	return this.error;
     }
 
     public Tokeniser(Scanner scanner) {
+        this(scanner, null);
+    }
+
+    public Tokeniser(Scanner scanner, String file) {
         this.scanner = scanner;
+        this.file = file;
+        this.buffer = scanner.buffer();
+        this.length = scanner.length();
+        this.deferErrors = false;
+    }
+
+    //a tokeniser for the part of the file starting at position, which is at the start of the line
+    private Tokeniser(Tokeniser whole, int position, int line) {
+        this.scanner = whole.scanner;
+        this.file = whole.file;
+        this.buffer = whole.buffer;
+        this.length = whole.length;
+        this.position = position;
+        this.line = line;
+        this.deferErrors = true;
+        this.part = new TokenStream(whole);
     }
 
     private void error(char c, int line, int col) {
-        System.out.println("Lexing error: unrecognised character ("+c+") at "+line+":"+col);
+        String message = "Lexing error: unrecognised character ("+c+") at "+(file == null ? "" : file+":")+line+":"+col;
+        if (deferErrors)
+            deferredError = message;
+        else
+            System.out.println(message);
 	   error++;
     }
 
+    private boolean atEnd() {
+        return position == length;
+    }
+
+    //consumes the next character
+    private char next() {
+        char r = buffer[position++];
+        if (r == '\n' || r == '\r') {
+            line++;
+            column = 0;
+        } else {
+            column++;
+        }
+        return r;
+    }
 
-    public Token nextToken() {
-        Token result;
-        try {
-             result = next();
-        } catch (EOFException eof) {
-            // end of file, nothing to worry about, just return EOF token
-            return new Token(TokenClass.EOF, scanner.getLine(), scanner.getColumn());
-        } catch (IOException ioe) {
-            ioe.printStackTrace();
-            // something went horribly wrong, abort
-            System.exit(-1);
-            return null;
+    //end of file token at the current position
+    private TokenClass eof() {
+        tokenStart = position;
+        tokenLine = line;
+        tokenColumn = column;
+        return TokenClass.EOF;
+    }
+
+    /**
+     * Keywords are told apart by length and then first character, so a word is compared against
+     * at most one keyword.
+     *
+     * @return the keyword made of the characters from start to end, or null for an identifier
+     */
+    private static TokenClass keyword(char[] buffer, int start, int end){
+        switch(end - start){
+            case 2:
+                return is("if", buffer, start) ? TokenClass.IF : null;
+            case 3:
+                return is("int", buffer, start) ? TokenClass.INT : null;
+            case 4:
+                switch(buffer[start]){
+                    case 'v': return is("void", buffer, start) ? TokenClass.VOID : null;
+                    case 'c': return is("char", buffer, start) ? TokenClass.CHAR : null;
+                    case 'e': return is("else", buffer, start) ? TokenClass.ELSE : null;
+                    default: return null;
+                }
+            case 5:
+                return is("while", buffer, start) ? TokenClass.WHILE : null;
+            case 6:
+                switch(buffer[start]){
+                    case 'r': return is("return", buffer, start) ? TokenClass.RETURN : null;
+                    case 's':
+                        if(is("struct", buffer, start))return TokenClass.STRUCT;
+                        return is("sizeof", buffer, start) ? TokenClass.SIZEOF : null;
+                    default: return null;
+                }
+            default:
+                return null;
+        }
+    }
+
+    private static boolean is(String keyword, char[] buffer, int start){
+        for(int i=0; i!=keyword.length(); i++){
+            if(buffer[start + i] != keyword.charAt(i))return false;
         }
-        return result;
+        return true;
     }
 
-    private char resolveEscape(char letter){
+    private static char resolveEscape(char letter){
         if(letter == 't')return '\t';
         if(letter == 'b')return '\b';
         if(letter == 'n')return '\n';
@@ -56,302 +164,414 @@ public class Tokeniser {
         return 'n';
     }
 
-    /*
-     * To be completed
-     */
-    private Token next() throws IOException {
-
-        int line = scanner.getLine();
-        int column = scanner.getColumn();
-
-        // get the next character
-        char c = scanner.next();
- 
-        // skip white spaces
-        if (Character.isWhitespace(c))
-            return next();
-
-        if(Character.isDigit(c)){
-            StringBuilder sb = new StringBuilder();
-            sb.append(c);
-            try{
-                c = scanner.peek();
-                while(Character.isDigit(c)){
-                    scanner.next();
-                    sb.append(c);
-
-                    c = scanner.peek();
-      
-                }
-            }catch(EOFException e){}
-
-            return new Token(TokenClass.INT_LITERAL, sb.toString(), line, column);
-        }
+    public Token nextToken() {
+        TokenClass kind = scan();
+        return new Token(kind, lexeme(kind, dataStart, dataEnd), tokenLine, tokenColumn);
+    }
 
-        if(Character.isLetter(c)||c=='_'){
-            StringBuilder sb = new StringBuilder();
-            sb.append(c);
-            try{
-                c = scanner.peek();
-                while(Character.isLetter(c)||Character.isDigit(c)||c=='_'){
-                    scanner.next();
-                    sb.append(c);
+    /**
+     * The rest of the file as a stream of tokens. Tokens are scanned as the stream is read, so lexing
+     * errors are reported as the parser reaches them; TokenStream.fill() scans the whole file up front.
+     * A long file is instead tokenised up front in parallel, keeping its errors until the parser
+     * reaches them.
+     */
+    public TokenStream tokenise() {
+        if (position == 0 && length >= PARALLEL_LENGTH && Runtime.getRuntime().availableProcessors() > 1)
+            return tokeniseInChunks();
+        return new TokenStream(this);
+    }
 
-                    c = scanner.peek();
+    /**
+     * A pre-scan splits the file at newlines outside comments and literals, counting lines as it goes, and
+     * each chunk is tokenised on its own thread from the start of its line.
+     *
+     * A chunk stops before the first token starting past its end. The next chunk's tokens are only kept
+     * if its own first token starts there too, as from a token start scanning is the same whatever came
+     * before. Otherwise, the chunk that stopped carries on through the next one, so the stream is always
+     * the one scanning the whole file in one go would give.
+     */
+    private TokenStream tokeniseInChunks() {
+        int[] starts = new int[length / CHUNK_LENGTH + 2];
+        int[] lines = new int[starts.length];
+        int chunks = 1;
+        lines[0] = 1;
+
+        int line = 1;
+        char state = 0; //'/' in a line comment, '*' in a block comment, '\'' or '"' in a literal
+        for (int i = 0; i < length; i++) {
+            char c = buffer[i];
+            if (c == '\n' || c == '\r')
+                line++;
+            if (state == 0) {
+                if (c == '\'' || c == '"') {
+                    state = c;
+                } else if (c == '/' && (buffer[i+1] == '/' || buffer[i+1] == '*')) {
+                    state = buffer[++i];
+                } else if (c == '\n' && i + 1 - starts[chunks - 1] >= CHUNK_LENGTH && i + 1 != length) {
+                    starts[chunks] = i + 1;
+                    lines[chunks] = line;
+                    chunks++;
                 }
-            }catch(EOFException e){}//file ended
-
-            String name = sb.toString();
-
-            if(name.equals("int"))
-                return new Token(TokenClass.INT, line, column);
-
-            if(name.equals("void"))
-                return new Token(TokenClass.VOID, line, column);
+            } else if (state == '/') {
+                if (c == '\n')
+                    state = 0;
+            } else if (state == '*') {
+                if (c == '*' && buffer[i+1] == '/') {
+                    state = 0;
+                    i++;
+                }
+            } else if (c == '\\') {
+                //the escaped character can't end the literal
+                c = buffer[++i];
+                if (c == '\n' || c == '\r')
+                    line++;
+            } else if (c == state) {
+                state = 0;
+            }
+        }
+        starts[chunks] = length;
+
+        if (chunks == 1)
+            return new TokenStream(this);
+
+        Tokeniser[] parts = new Tokeniser[chunks];
+        int last = chunks - 1;
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            parts[c] = new Tokeniser(this, starts[c], lines[c]);
+            parts[c].scanChunk(starts[c + 1], c == last);
+        });
+
+        TokenStream tokens = new TokenStream(this);
+        Tokeniser current = parts[0];
+        for (int c = 1; c != chunks && current.exit != -1; c++) {
+            if (parts[c].entry == current.exit) {
+                tokens.append(current.part);
+                current = parts[c];
+            } else {
+                current.scanChunk(starts[c + 1], c == last);
+            }
+        }
+        tokens.append(current.part);
+        error += tokens.errorCount();
+        return tokens;
+    }
 
-            if(name.equals("char"))
-                return new Token(TokenClass.CHAR, line, column);
+    /**
+     * Scans into this chunk tokeniser's stream the tokens starting before end, leaving the position at
+     * the first one that doesn't; or, for the last chunk, those up to the end of the file.
+     */
+    private void scanChunk(int end, boolean last) {
+        while (true) {
+            int position = this.position;
+            int line = this.line;
+            int column = this.column;
+
+            deferredError = null;
+            TokenClass kind = scan();
+            if (entry == -1)
+                entry = tokenStart;
+
+            if (!last && tokenStart >= end) {
+                exit = tokenStart;
+                this.position = position;
+                this.line = line;
+                this.column = column;
+                return;
+            }
 
-            if(name.equals("if"))
-                return new Token(TokenClass.IF, line, column);
+            part.add(kind, dataStart, dataEnd, tokenLine, tokenColumn, deferredError);
+            if (kind == TokenClass.EOF) {
+                //as at(), the end of file once scanned
+                scan();
+                part.add(TokenClass.EOF, 0, 0, tokenLine, tokenColumn);
+                exit = -1;
+                return;
+            }
+        }
+    }
 
-            if(name.equals("else"))
-                return new Token(TokenClass.ELSE, line, column);
+    //scans the next token into the stream
+    void scanInto(TokenStream stream) {
+        TokenClass kind = scan();
+        stream.add(kind, dataStart, dataEnd, tokenLine, tokenColumn);
+    }
 
-            if(name.equals("while"))
-                return new Token(TokenClass.WHILE, line, column);
+    /**
+     * The lexeme of a token whose data lies from start up to, not including, end in the buffer.
+     * Character literals are held as written, so an escape is resolved here.
+     */
+    String lexeme(TokenClass kind, int start, int end) {
+        switch(kind){
+            case IDENTIFIER:
+                return names.intern(buffer, start, end);
+            case INT_LITERAL:
+            case STRING_LITERAL:
+                return scanner.slice(start, end);
+            case CHAR_LITERAL:
+                return String.valueOf(end - start == 1 ? buffer[start] : resolveEscape(buffer[start + 1]));
+            default:
+                return "";
+        }
+    }
 
-            if(name.equals("return"))
-                return new Token(TokenClass.RETURN, line, column);
+    /**
+     * Finds the next token, leaving its position in tokenLine and tokenColumn and its lexeme, if any,
+     * between dataStart and dataEnd.
+     */
+    private TokenClass scan() {
+        while (true) {
+            int line = this.line;
+            int column = this.column;
+            tokenStart = position;
+            tokenLine = line;
+            tokenColumn = column;
+            dataStart = 0;
+            dataEnd = 0;
+
+            if (atEnd())
+                return eof();
+
+            // get the next character
+            char c = next();
+
+            // skip white spaces
+            if (Character.isWhitespace(c))
+                continue;
+
+            if(Character.isDigit(c)){
+                //cut straight out of the buffer; the sentinel ends the run at the end of the file
+                int start = position - 1;
+                while(Character.isDigit(buffer[position])){
+                    position++;
+                }
+                this.column += position - start - 1;
 
-            if(name.equals("struct"))
-                return new Token(TokenClass.STRUCT, line, column);
+                dataStart = start;
+                dataEnd = position;
+                return TokenClass.INT_LITERAL;
+            }
 
-            if(name.equals("sizeof"))
-                return new Token(TokenClass.SIZEOF, line, column);
+            if(Character.isLetter(c)||c=='_'){
+                int start = position - 1;
+                while(Character.isLetter(buffer[position])||Character.isDigit(buffer[position])||buffer[position]=='_'){
+                    position++;
+                }
+                this.column += position - start - 1;
 
-            return new Token(TokenClass.IDENTIFIER, name, line, column);
-            
-        }
+                TokenClass keyword = keyword(buffer, start, position);
+                if(keyword != null)
+                    return keyword;
 
-        if( c == '\''){
-            StringBuilder sb =  new StringBuilder();
+                dataStart = start;
+                dataEnd = position;
+                return TokenClass.IDENTIFIER;
+            }
 
-            c = scanner.next();
-            int read = 0;
-            while(c!='\''){
-                if( c == '\\'){
-                    c = scanner.next(); //this one is allowed to be ' without terminating the literal
-                    char unescaped = resolveEscape(c);
-                    if(unescaped == 'n'){ //not a valid escape sequence
-                        error(c, line, column);
-                        return new Token(TokenClass.INVALID, line, column);
+            if( c == '\''){
+                int start = position;
+
+                if (atEnd())
+                    return eof();
+                c = next();
+                int read = 0;
+                while(c!='\''){
+                    if( c == '\\'){
+                        if (atEnd())
+                            return eof();
+                        c = next(); //this one is allowed to be ' without terminating the literal
+                        if(resolveEscape(c) == 'n'){ //not a valid escape sequence
+                            error(c, line, column);
+                            return TokenClass.INVALID;
+                        }
                     }
-                    sb.append(unescaped); 
-                }else{
-                    sb.append(c);
+                    if (atEnd())
+                        return eof();
+                    c = next();
+                    read++;
                 }
-                c = scanner.next();
-                read++;
-            }
-            String theCharacter = sb.toString();
 
-            if(read==1)
-                return new Token(TokenClass.CHAR_LITERAL, theCharacter, line, column);
-        }
+                if(read==1){
+                    //kept as written, the escape is resolved with the lexeme
+                    dataStart = start;
+                    dataEnd = position - 1;
+                    return TokenClass.CHAR_LITERAL;
+                }
 
-        if( c == '\"'){
-            StringBuilder sb =  new StringBuilder();
+                //anything else between the quotes is reported as the closing quote
+                error(c, line, column);
+                return TokenClass.INVALID;
+            }
 
-            c = scanner.next();
-            while(c!='\"'){
-                if( c == '\\'){
-                    c = scanner.next(); //this one is allowed to be ' without terminating the literal
-                    char unescaped = resolveEscape(c);
-                    if(unescaped == 'n'){ //not a valid escape sequence
-                        error(c, line, column);
-                        return new Token(TokenClass.INVALID, line, column);
+            if( c == '\"'){
+                int start = position;
+
+                if (atEnd())
+                    return eof();
+                c = next();
+                while(c!='\"'){
+                    if( c == '\\'){
+                        if (atEnd())
+                            return eof();
+                        c = next(); //this one is allowed to be " without terminating the literal
+                        if(resolveEscape(c) == 'n'){ //not a valid escape sequence
+                            error(c, line, column);
+                            return TokenClass.INVALID;
+                        }
                     }
-                    sb.append('\\');
-                    sb.append(c);
-                }else{
-                    sb.append(c);
+                    if (atEnd())
+                        return eof();
+                    c = next();
                 }
-                c = scanner.next();
+
+                //escapes are kept as written
+                dataStart = start;
+                dataEnd = position - 1;
+                return TokenClass.STRING_LITERAL;
             }
-            String theString = sb.toString();
 
-            return new Token(TokenClass.STRING_LITERAL, theString, line, column);
-        }
+            //at the end of the file, the sentinel is never the second character of an operator
+            char peeked = buffer[position];
 
-        if(c == '='){
-            try{
-                char next = scanner.peek();
-                if(next == '='){
-                    scanner.next();//consume the peeked character
-                    return new Token(TokenClass.EQ, line, column);
+            if(c == '='){
+                if(peeked == '='){
+                    next();//consume the peeked character
+                    return TokenClass.EQ;
                 }
-            }catch(EOFException e){}//ends with assign
-
-            return new Token(TokenClass.ASSIGN, line, column);
-        }
-
-        try{
-            if(c == '|'){
-                char next = scanner.peek();
-                if(next == '|'){
-                    scanner.next();
-                    return new Token(TokenClass.LOGOR, line, column);
-                }//else error, eof error
+                return TokenClass.ASSIGN;
             }
 
-            if(c=='!'){
-                char next = scanner.peek();
-
-                if(next == '='){
-                    scanner.next();
-                    return new Token(TokenClass.NE, line, column);
-                }//else error, eof error
+            if(c == '|' && peeked == '|'){
+                next();
+                return TokenClass.LOGOR;
             }
-        }catch(EOFException e){} //Error... tokens are incomplete
 
-        if(c=='<'){
-            try{
-                char next = scanner.peek();
+            if(c == '!' && peeked == '='){
+                next();
+                return TokenClass.NE;
+            }
 
-                if(next == '='){
-                    scanner.next();
-                    return new Token(TokenClass.LE, line, column);
+            if(c=='<'){
+                if(peeked == '='){
+                    next();
+                    return TokenClass.LE;
                 }
-            }catch(EOFException e){}
-            return new Token(TokenClass.LT, line, column);
-        }
-
-        if(c=='>'){
-            try{
-                char next = scanner.peek();
+                return TokenClass.LT;
+            }
 
-                if(next == '='){
-                    scanner.next();
-                    return new Token(TokenClass.GE, line, column);
+            if(c=='>'){
+                if(peeked == '='){
+                    next();
+                    return TokenClass.GE;
                 }
-            }catch(EOFException e){}
-            return new Token(TokenClass.GT, line, column);
-        }
+                return TokenClass.GT;
+            }
 
-        if(c=='#'){
-            final String include ="include";
-            for(char i : include.toCharArray()){
-                try{
-                    if(scanner.peek()!=i){
+            if(c=='#'){
+                final String include ="include";
+                for(int i=0; i!=include.length(); i++){
+                    if(atEnd()){
+                        return TokenClass.INVALID; //file ended before token completed
+                    }
+                    if(buffer[position]!=include.charAt(i)){
                         error(c, line, column);
-                        return new Token(TokenClass.INVALID, line, column);
+                        return TokenClass.INVALID;
                     }
-                }catch(EOFException e){
-                    return new Token(TokenClass.INVALID, line, column); //file ended before token completed
+                    next();
                 }
-                scanner.next();
+                return TokenClass.INCLUDE;
             }
-            return new Token(TokenClass.INCLUDE, line, column);
-        }
 
-        if (c == '+')
-            return new Token(TokenClass.PLUS, line, column);
+            if (c == '+')
+                return TokenClass.PLUS;
 
-        if (c == '-')
-            return new Token(TokenClass.MINUS, line, column);
+            if (c == '-')
+                return TokenClass.MINUS;
 
-        if (c == '*')
-            return new Token(TokenClass.ASTERIX, line, column);
+            if (c == '*')
+                return TokenClass.ASTERIX;
 
-        if (c == '/'){
-            try{
-                if(scanner.peek()=='/'){//this is a comment
-                    try{
-                        while(scanner.next()!='\n'){}
-                        return nextToken();
-                    }catch(EOFException e){
-                        return new Token(TokenClass.EOF, line, column);
+            if (c == '/'){
+                if(peeked=='/'){//this is a comment
+                    while(next() != '\n'){
+                        if(atEnd()){
+                            //file ended inside the comment
+                            return TokenClass.EOF;
+                        }
                     }
+                    continue;
                 }
-                if(scanner.peek()=='*'){/*so is this*/
-                    scanner.next();
-                    try{
-                        while(true){
-                            c = scanner.next();
-                            if(c == '*'){
-                                c = scanner.peek();
-                                if(c=='/'){
-                                    scanner.next();
-                                    break;
-                                }
-                            }
-
-                        } 
-                    }catch(EOFException e){
-                        //unterminated /* comment
+                if(peeked=='*'){/*so is this*/
+                    next();
+                    boolean closed = false;
+                    while(!atEnd()){
+                        c = next();
+                        if(c == '*' && buffer[position] == '/'){
+                            next();
+                            closed = true;
+                            break;
+                        }
+                    }
+                    if(!closed){
+                        //unterminated /* comment, reported with the last character read
                         error(c, line, column);
-                        return new Token(TokenClass.INVALID, line, column);
-                    }    
-                    return nextToken();
+                        return TokenClass.INVALID;
+                    }
+                    continue;
                 }
-            }catch(EOFException e){}//ends with / 
-            return new Token(TokenClass.DIV, line, column);
-        }
+                return TokenClass.DIV;
+            }
 
-        if (c == '%')
-            return new Token(TokenClass.REM, line, column);
+            if (c == '%')
+                return TokenClass.REM;
 
-        if (c == '&'){
-            try{
-                char next = scanner.peek();
-                if(next == '&'){
-                    scanner.next();
-                    return new Token(TokenClass.LOGAND, line, column);
+            if (c == '&'){
+                if(peeked == '&'){
+                    next();
+                    return TokenClass.LOGAND;
                 }
-            }catch (EOFException e){}
-            return new Token(TokenClass.AND, line, column);
-        }
-        
-        if (c == '.')
-            return new Token(TokenClass.DOT, line, column);
+                return TokenClass.AND;
+            }
 
-        if(c == '{'){
-            return new Token(TokenClass.LBRA, line, column);
-        }
+            if (c == '.')
+                return TokenClass.DOT;
 
-        if(c == '}'){
-            return new Token(TokenClass.RBRA, line, column);
-        }
+            if(c == '{'){
+                return TokenClass.LBRA;
+            }
 
-        if(c == '('){
-            return new Token(TokenClass.LPAR, line, column);
-        }
+            if(c == '}'){
+                return TokenClass.RBRA;
+            }
 
-        if(c == ')'){
-            return new Token(TokenClass.RPAR, line, column);
-        }
+            if(c == '('){
+                return TokenClass.LPAR;
+            }
 
-        if(c == '['){
-            return new Token(TokenClass.LSBR, line, column);
-        }
+            if(c == ')'){
+                return TokenClass.RPAR;
+            }
 
-        if(c == ']'){
-            return new Token(TokenClass.RSBR, line, column);
-        }
+            if(c == '['){
+                return TokenClass.LSBR;
+            }
 
-        if(c == ';'){
-            return new Token(TokenClass.SC, line, column);
-        }
+            if(c == ']'){
+                return TokenClass.RSBR;
+            }
 
-        if(c == ','){
-            return new Token(TokenClass.COMMA, line, column);
-        }
+            if(c == ';'){
+                return TokenClass.SC;
+            }
+
+            if(c == ','){
+                return TokenClass.COMMA;
+            }
 
 
-        // if we reach this point, it means we did not recognise a valid token
-        error(c, line, column);
-        return new Token(TokenClass.INVALID, line, column);
+            // if we reach this point, it means we did not recognise a valid token
+            error(c, line, column);
+            return TokenClass.INVALID;
+        }
     }
 
 
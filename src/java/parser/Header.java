@@ -0,0 +1,26 @@
+package parser;
+
+import ast.FunDecl;
+import ast.StructTypeDecl;
+import ast.VarDecl;
+
+import java.util.List;
+
+/**
+ * What a header file declares: the headers it includes in turn, struct declarations, global variables,
+ * and function prototypes, which are declarations with no block.
+ */
+public class Header {
+
+    public final List<String> includes;
+    public final List<StructTypeDecl> structTypeDecls;
+    public final List<VarDecl> varDecls;
+    public final List<FunDecl> prototypes;
+
+    public Header(List<String> includes, List<StructTypeDecl> structTypeDecls, List<VarDecl> varDecls, List<FunDecl> prototypes) {
+        this.includes = includes;
+        this.structTypeDecls = structTypeDecls;
+        this.varDecls = varDecls;
+        this.prototypes = prototypes;
+    }
+}
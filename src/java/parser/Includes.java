@@ -0,0 +1,277 @@
+package parser;
+
+import ast.*;
+import lexer.Scanner;
+import lexer.Tokeniser;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Resolves #include directives: a header is looked for next to the file including it, then in each include
+ * directory in turn, and its declarations go in front of those of the program. Each header is included
+ * once per program, however many times it is named.
+ *
+ * Parsed headers are kept in a cache directory that outlives the compiler, so a header shared by many
+ * programs is only lexed and parsed once. An entry is named by a hash of the header's path and holds
+ * a hash of the contents it was parsed from; it is only used while the contents still match.
+ *
+ * An entry is trusted as it is, so the cache directory must be one only the user running the compiler
+ * can write to: anyone else able to plant an entry could add structs and globals to their programs.
+ */
+public class Includes {
+
+    private static final int MAGIC = 0x4D434831; //"MCH1"
+
+    private final List<File> directories;
+    private final File cacheDirectory;
+
+    // canonical paths of the headers included so far
+    private final Set<String> included = new HashSet<>();
+
+    /**
+     * @param cacheDirectory where parsed headers are kept, or null to parse every header. It is made for
+     * its owner only if it doesn't exist, and not used if it is anyone else's or others can write to it.
+     */
+    public Includes(List<File> directories, File cacheDirectory) {
+        this.directories = directories;
+        this.cacheDirectory = cacheDirectory != null && isPrivate(cacheDirectory) ? cacheDirectory : null;
+    }
+
+    // whether the directory, made if need be, is the user's own and no one else's to write to
+    private static boolean isPrivate(File directory) {
+        Path path = directory.toPath();
+        try {
+            if (!path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                // without owners and modes, as on Windows, the directory is trusted as the user's own
+                Files.createDirectories(path);
+                return true;
+            }
+            if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                if (path.getParent() != null)
+                    Files.createDirectories(path.getParent());
+                Files.createDirectory(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            }
+            PosixFileAttributes attributes = Files.readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            UserPrincipal user = path.getFileSystem().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+            Set<PosixFilePermission> permissions = attributes.permissions();
+            return attributes.isDirectory() && attributes.owner().equals(user)
+                && !permissions.contains(PosixFilePermission.GROUP_WRITE)
+                && !permissions.contains(PosixFilePermission.OTHERS_WRITE);
+        } catch (IOException e) {
+            // headers are then parsed every time, as without a cache
+            return false;
+        }
+    }
+
+    /**
+     * Adds the declarations of the header, after those of the headers it includes, to the lists.
+     * @param from the file naming the header
+     * @return the number of errors
+     */
+    int include(File from, String name, Types types, List<StructTypeDecl> structTypeDecls, List<VarDecl> varDecls) {
+        File file = find(from, name);
+        if (file == null) {
+            System.out.println("Parsing error: header "+name+" not found\n\n");
+            return 1;
+        }
+
+        String path;
+        byte[] contents;
+        try {
+            path = file.getCanonicalPath();
+            if (!included.add(path))
+                return 0;
+            contents = Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            System.out.println("Parsing error: header "+name+" could not be read\n\n");
+            return 1;
+        }
+        byte[] hash = sha256(contents);
+
+        File entry = cacheDirectory == null ? null : new File(cacheDirectory, hex(sha256(path.getBytes())) + ".hdr");
+        Header header = entry == null ? null : read(entry, hash, types);
+        if (header == null) {
+            Tokeniser tokeniser;
+            try {
+                tokeniser = new Tokeniser(new Scanner(file), file.getPath());
+            } catch (FileNotFoundException e) {
+                System.out.println("Parsing error: header "+name+" could not be read\n\n");
+                return 1;
+            }
+            Parser parser = new Parser(tokeniser, file.getPath(), types);
+            header = parser.parseHeaderFile();
+            int errors = parser.getErrorCount() + tokeniser.getErrorCount();
+            if (errors != 0)
+                return errors;
+            if (entry != null)
+                write(entry, hash, header);
+        }
+
+        int errors = 0;
+        for (String include : header.includes)
+            errors += include(file, include, types, structTypeDecls, varDecls);
+        structTypeDecls.addAll(header.structTypeDecls);
+        varDecls.addAll(header.varDecls);
+        return errors;
+    }
+
+    private File find(File from, String name) {
+        File local = new File(from.getAbsoluteFile().getParentFile(), name);
+        if (local.isFile())
+            return local;
+        for (File directory : directories) {
+            File file = new File(directory, name);
+            if (file.isFile())
+                return file;
+        }
+        return null;
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e); //every Java platform has SHA-256
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes)
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    // the cached header, or null if there is none for these contents or it can't be read
+    private static Header read(File entry, byte[] hash, Types types) {
+        if (!entry.isFile())
+            return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(entry)))) {
+            if (in.readInt() != MAGIC)
+                return null;
+            byte[] cached = new byte[hash.length];
+            in.readFully(cached);
+            if (!Arrays.equals(cached, hash))
+                return null;
+
+            List<String> includes = new LinkedList<>();
+            for (int n = in.readInt(); n != 0; n--)
+                includes.add(in.readUTF());
+            List<StructTypeDecl> structTypeDecls = new LinkedList<>();
+            for (int n = in.readInt(); n != 0; n--) {
+                StructType type = types.struct(in.readUTF());
+                structTypeDecls.add(new StructTypeDecl(type, readVarDecls(in, types)));
+            }
+            List<VarDecl> varDecls = readVarDecls(in, types);
+            List<FunDecl> prototypes = new LinkedList<>();
+            for (int n = in.readInt(); n != 0; n--) {
+                Type type = readType(in, types);
+                String name = in.readUTF();
+                prototypes.add(new FunDecl(type, name, readVarDecls(in, types), null));
+            }
+            return new Header(includes, structTypeDecls, varDecls, prototypes);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Written to a temporary file that then replaces the entry, so a compiler reading the entry at the
+     * same time sees either the old or the new one. The cache is only there to save time, so failing to
+     * write it isn't an error.
+     */
+    private static void write(File entry, byte[] hash, Header header) {
+        try {
+            Files.createDirectories(entry.getParentFile().toPath());
+            File temporary = File.createTempFile("header", ".tmp", entry.getParentFile());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.write(hash);
+                out.writeInt(header.includes.size());
+                for (String include : header.includes)
+                    out.writeUTF(include);
+                out.writeInt(header.structTypeDecls.size());
+                for (StructTypeDecl std : header.structTypeDecls) {
+                    out.writeUTF(std.type.name);
+                    writeVarDecls(out, std.fields);
+                }
+                writeVarDecls(out, header.varDecls);
+                out.writeInt(header.prototypes.size());
+                for (FunDecl fd : header.prototypes) {
+                    writeType(out, fd.type);
+                    out.writeUTF(fd.name);
+                    writeVarDecls(out, fd.params);
+                }
+            }
+            Files.move(temporary.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // left to be parsed again next time
+        }
+    }
+
+    private static List<VarDecl> readVarDecls(DataInputStream in, Types types) throws IOException {
+        List<VarDecl> vds = new LinkedList<>();
+        for (int n = in.readInt(); n != 0; n--) {
+            Type type = readType(in, types);
+            vds.add(new VarDecl(type, in.readUTF()));
+        }
+        return vds;
+    }
+
+    private static void writeVarDecls(DataOutputStream out, List<VarDecl> vds) throws IOException {
+        out.writeInt(vds.size());
+        for (VarDecl vd : vds) {
+            writeType(out, vd.type);
+            out.writeUTF(vd.varName);
+        }
+    }
+
+    // a type is a tag byte, then what the tag needs
+    private static final int INT = 0, CHAR = 1, VOID = 2, POINTER = 3, ARRAY = 4, STRUCT = 5;
+
+    private static Type readType(DataInputStream in, Types types) throws IOException {
+        switch (in.readByte()) {
+            case INT: return BaseType.INT;
+            case CHAR: return BaseType.CHAR;
+            case VOID: return BaseType.VOID;
+            case POINTER: return types.pointer(readType(in, types));
+            case ARRAY:
+                int size = in.readInt();
+                return types.array(size, readType(in, types));
+            case STRUCT: return types.struct(in.readUTF());
+            default: throw new IOException("not a type");
+        }
+    }
+
+    private static void writeType(DataOutputStream out, Type type) throws IOException {
+        if (type == BaseType.INT) {
+            out.writeByte(INT);
+        } else if (type == BaseType.CHAR) {
+            out.writeByte(CHAR);
+        } else if (type == BaseType.VOID) {
+            out.writeByte(VOID);
+        } else if (type instanceof PointerType) {
+            out.writeByte(POINTER);
+            writeType(out, ((PointerType) type).type);
+        } else if (type instanceof ArrayType) {
+            out.writeByte(ARRAY);
+            out.writeInt(((ArrayType) type).size);
+            writeType(out, ((ArrayType) type).element);
+        } else {
+            out.writeByte(STRUCT);
+            out.writeUTF(((StructType) type).name);
+        }
+    }
+}
@@ -4,29 +4,72 @@ import ast.*;
 import ast.BinOp.OP;
 import lexer.Token;
 import lexer.Token.TokenClass;
+import lexer.TokenStream;
 import lexer.Tokeniser;
+import util.Position;
 
+import java.io.File;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
 
 
 /**
+ * Reads the tokens through a cursor into a token stream, so looking ahead is indexing
+ * and tokens are referred to by their index.
+ *
  * @author cdubach
  */
 public class Parser {
 
-    private Token token;
+    // index of the current token in the stream
+    private int token = -1;
 
-    // use for backtracking (useful for distinguishing decls from procs when parsing a program for instance)
-    private Queue<Token> buffer = new LinkedList<>();
+    private final TokenStream tokens;
 
-    private final Tokeniser tokeniser;
+    // where included headers are found, and the file being parsed; includes are ignored without them
+    private final Includes includes;
+    private final File source;
+
+    // the names of the headers included, and what they declare
+    private final List<String> includeNames = new LinkedList<>();
+    private final List<StructTypeDecl> includedStructTypeDecls = new LinkedList<>();
+    private final List<VarDecl> includedVarDecls = new LinkedList<>();
+
+    // the types of the compilation, shared with the parsers of its headers
+    private final Types types;
+
+    // the header parsed, named in errors, or null for the program, whose errors give just the position
+    private final String header;
 
 
 
     public Parser(Tokeniser tokeniser) {
-        this.tokeniser = tokeniser;
+        this(tokeniser.tokenise());
+    }
+
+    public Parser(TokenStream tokens) {
+        this(tokens, null, null, new Types(), null);
+    }
+
+    // a parser of a header, named in its errors, whose types are those of the program including it
+    Parser(Tokeniser tokeniser, String header, Types types) {
+        this(tokeniser.tokenise(), null, null, types, header);
+    }
+
+    /**
+     * A parser that resolves the includes of the source file, putting the declarations of the headers
+     * in front of those of the program.
+     */
+    public Parser(Tokeniser tokeniser, File source, Includes includes) {
+        this(tokeniser.tokenise(), source, includes, new Types(), null);
+    }
+
+    private Parser(TokenStream tokens, File source, Includes includes, Types types, String header) {
+        this.tokens = tokens;
+        this.source = source;
+        this.includes = includes;
+        this.types = types;
+        this.header = header;
     }
 
     public Program parse() {
@@ -36,12 +79,68 @@ public class Parser {
         return parseProgram();
     }
 
+    /**
+     * Parses the includes, struct declarations and global variables, for a program whose functions are
+     * then parsed one at a time with parseNextFunDecl.
+     * @return the program so far, with no functions
+     */
+    public Program parseHeader() {
+        // get the first token
+        nextToken();
+
+        parseIncludes();
+        List<StructTypeDecl> stds = parseStructDecls();
+        List<VarDecl> vds = parseVarDecls();
+        stds.addAll(0, includedStructTypeDecls);
+        vds.addAll(0, includedVarDecls);
+        return new Program(stds, vds, new LinkedList<FunDecl>(), types);
+    }
+
+    /**
+     * Parses a header: includes, struct declarations, global variables and function prototypes.
+     */
+    public Header parseHeaderFile() {
+        // get the first token
+        nextToken();
+
+        parseIncludes();
+        List<StructTypeDecl> stds = parseStructDecls();
+        List<VarDecl> vds = parseVarDecls();
+        List<FunDecl> prototypes = new LinkedList<FunDecl>();
+        while(accept(TokenClass.INT, TokenClass.CHAR, TokenClass.VOID, TokenClass.STRUCT)){
+            prototypes.add(parsePrototype());
+        }
+        expect(TokenClass.EOF);
+        return new Header(includeNames, stds, vds, prototypes);
+    }
+
+    /**
+     * @return true if another function declaration follows
+     */
+    public boolean hasNextFunDecl() {
+        return accept(TokenClass.INT, TokenClass.CHAR, TokenClass.VOID, TokenClass.STRUCT);
+    }
+
+    /**
+     * @return the next function declaration, or null if it could not be parsed
+     */
+    public FunDecl parseNextFunDecl() {
+        return parseFunDecl();
+    }
+
+    /**
+     * Ends a program parsed one function at a time, once hasNextFunDecl is false.
+     */
+    public void parseEnd() {
+        expect(TokenClass.EOF);
+    }
+
     public int getErrorCount() {
         return error;
     }
 
     private int error = 0;
-    private Token lastErrorToken;
+    private int lastErrorToken = -1;
 
     private void error(TokenClass... expected) {
 
@@ -57,7 +156,8 @@ public class Parser {
             sb.append(e);
             sep = "|";
         }
-        System.out.println("Parsing error: expected ("+sb+") found ("+token+") at "+token.position+"\n\n");
+        Token found = tokens.token(token);
+        System.out.println("Parsing error: expected ("+sb+") found ("+found+") at "+(header == null ? "" : header+":")+Position.toString(found.position)+"\n\n");
         //Thread.dumpStack();
 
         error++;
@@ -65,61 +165,48 @@ public class Parser {
     }
 
     /*
-     * Look ahead the i^th element from the stream of token.
+     * Look ahead the i^th element from the stream of token: an index into the stream, scanning up to it
+     * the first time.
      * i should be >= 1
      */
-    private Token lookAhead(int i) {
-        // ensures the buffer has the element we want to look ahead
-        while (buffer.size() < i)
-            buffer.add(tokeniser.nextToken());
-        assert buffer.size() >= i;
-
-        int cnt=1;
-        for (Token t : buffer) {
-            if (cnt == i)
-                return t;
-            cnt++;
-        }
-
-        assert false; // should never reach this
-        return null;
+    private TokenClass lookAhead(int i) {
+        return tokens.kind(token + i);
     }
 
 
     /*
-     * Consumes the next token from the tokeniser or the buffer if not empty.
+     * Moves the cursor on to the next token.
      */
     private void nextToken() {
-        if (!buffer.isEmpty())
-            token = buffer.remove();
-        else
-            token = tokeniser.nextToken();
+        token++;
     }
 
     /*
      * If the current token is equals to the expected one, then skip it, otherwise report an error.
-     * Returns the expected token or null if an error occurred.
+     * Returns the index of the expected token or -1 if an error occurred.
      */
-    private Token expect(TokenClass... expected) {
+    private int expect(TokenClass... expected) {
+        TokenClass current = tokens.kind(token);
         for (TokenClass e : expected) {
-            if (e == token.tokenClass) {
-                Token cur = token;
+            if (e == current) {
+                int cur = token;
                 nextToken();
                 return cur;
             }
         }
 
         error(expected);
-        return null;
+        return -1;
     }
 
     /*
     * Returns true if the current token is equals to any of the expected ones.
     */
     private boolean accept(TokenClass... expected) {
+        TokenClass current = tokens.kind(token);
         boolean result = false;
         for (TokenClass e : expected)
-            result |= (e == token.tokenClass);
+            result |= (e == current);
         return result;
     }
 
@@ -128,16 +215,23 @@ public class Parser {
         parseIncludes();
         List<StructTypeDecl> stds = parseStructDecls();
         List<VarDecl> vds = parseVarDecls();
+        stds.addAll(0, includedStructTypeDecls);
+        vds.addAll(0, includedVarDecls);
         List<FunDecl> fds = parseFunDecls();
         expect(TokenClass.EOF);
-        return new Program(stds, vds, fds);
+        return new Program(stds, vds, fds, types);
     }
 
-    // includes are ignored, so does not need to return an AST node
+    // the declarations of included headers are kept aside, so does not need to return an AST node
     private void parseIncludes() {
         if (accept(TokenClass.INCLUDE)) {
             nextToken();
-            expect(TokenClass.STRING_LITERAL);
+            int name = expect(TokenClass.STRING_LITERAL);
+            if (name != -1) {
+                includeNames.add(tokens.lexeme(name));
+                if (includes != null)
+                    error += includes.include(source, tokens.lexeme(name), types, includedStructTypeDecls, includedVarDecls);
+            }
             parseIncludes();
         }
     }
@@ -145,7 +239,7 @@ public class Parser {
     private List<StructTypeDecl> parseStructDecls() {
         List<StructTypeDecl> ret = new LinkedList<StructTypeDecl>();
         while(accept(TokenClass.STRUCT)){
-            if(lookAhead(2).tokenClass!=TokenClass.LBRA)break;
+            if(lookAhead(2)!=TokenClass.LBRA)break;
             ret.add(parseStructDecl());
         }
         return ret;
@@ -159,10 +253,10 @@ public class Parser {
             if(accept(TokenClass.STRUCT)){
                 checkLoc++; //type id ? -> struct id id ?
             }
-            if(lookAhead(checkLoc).tokenClass == TokenClass.ASTERIX){
+            if(lookAhead(checkLoc) == TokenClass.ASTERIX){
                 checkLoc++; //decl ? to decl * ?
             }
-            if(lookAhead(checkLoc).tokenClass == TokenClass.LPAR){
+            if(lookAhead(checkLoc) == TokenClass.LPAR){
                 break; //function
             }
             ret.add(parseVarDecl());
@@ -197,9 +291,9 @@ public class Parser {
         List<VarDecl> fields = new LinkedList<VarDecl>();
 
         expect(TokenClass.STRUCT);
-        Token tk = expect(TokenClass.IDENTIFIER);
-        if(tk == null) return null;
-        StructType type = new StructType(tk.data);
+        int tk = expect(TokenClass.IDENTIFIER);
+        if(tk == -1) return null;
+        StructType type = types.struct(tokens.lexeme(tk));
         expect(TokenClass.LBRA);
         fields.add(parseVarDecl());
         while(accept(TokenClass.STRUCT, TokenClass.VOID, TokenClass.INT, TokenClass.CHAR)){
@@ -214,9 +308,9 @@ public class Parser {
 
     private FunDecl parseFunDecl(){
         Type type = parseType();
-        Token tk = expect(TokenClass.IDENTIFIER);
-        if(tk==null)return null;
-        String name = tk.data;
+        int tk = expect(TokenClass.IDENTIFIER);
+        if(tk==-1)return null;
+        String name = tokens.lexeme(tk);
         expect(TokenClass.LPAR);
         List<VarDecl> params = parseParams();
         expect(TokenClass.RPAR);
@@ -224,18 +318,31 @@ public class Parser {
         return new FunDecl(type, name, params, bk);
     }
 
+    // a function declaration with no block, in a header
+    private FunDecl parsePrototype(){
+        Type type = parseType();
+        int tk = expect(TokenClass.IDENTIFIER);
+        if(tk==-1)return null;
+        String name = tokens.lexeme(tk);
+        expect(TokenClass.LPAR);
+        List<VarDecl> params = parseParams();
+        expect(TokenClass.RPAR);
+        expect(TokenClass.SC);
+        return new FunDecl(type, name, params, null);
+    }
+
     private Type parseType(){
         Type ret = null;
         if(accept(TokenClass.STRUCT)){
             nextToken();
-            Token tk = expect(TokenClass.IDENTIFIER);
-            if(tk!=null){
-                ret = new StructType(tk.data);
+            int tk = expect(TokenClass.IDENTIFIER);
+            if(tk!=-1){
+                ret = types.struct(tokens.lexeme(tk));
             }
         }else{
-            Token tk = expect(TokenClass.INT, TokenClass.VOID, TokenClass.CHAR);
-            if(tk==null)return null;
-            switch(tk.tokenClass){
+            int tk = expect(TokenClass.INT, TokenClass.VOID, TokenClass.CHAR);
+            if(tk==-1)return null;
+            switch(tokens.kind(tk)){
                 case INT:
                     ret = BaseType.INT;
                     break;
@@ -250,7 +357,7 @@ public class Parser {
 
         if(accept(TokenClass.ASTERIX)){
             nextToken();
-            ret = new PointerType(ret);
+            ret = types.pointer(ret);
         }
 
         return ret;
@@ -262,9 +369,9 @@ public class Parser {
 
         Type type = parseType();
 
-        Token tk = expect(TokenClass.IDENTIFIER);
-        if(tk==null)return null;
-        VarDecl decl = new VarDecl(type, tk.data);
+        int tk = expect(TokenClass.IDENTIFIER);
+        if(tk==-1)return null;
+        VarDecl decl = new VarDecl(type, tokens.lexeme(tk));
         LinkedList<VarDecl> ret = new LinkedList<VarDecl>();
         ret.add(decl);
         if(accept(TokenClass.COMMA)){
@@ -276,19 +383,19 @@ public class Parser {
 
     private VarDecl parseVarDecl(){
         Type type = parseType();
-        Token tk = expect(TokenClass.IDENTIFIER);
+        int tk = expect(TokenClass.IDENTIFIER);
         String name;
-        if(tk!=null){
-            name = tk.data; 
+        if(tk!=-1){
+            name = tokens.lexeme(tk); 
         }else{
             return null;//failure... return null string is fine since parser fails here
         }
         if(accept(TokenClass.LSBR)){
             nextToken();
-            Token size_literal = expect(TokenClass.INT_LITERAL);
+            int size_literal = expect(TokenClass.INT_LITERAL);
             expect(TokenClass.RSBR);
-            if(size_literal!=null)
-                type = new ArrayType(Integer.parseInt(size_literal.data), type);
+            if(size_literal!=-1)
+                type = types.array(Integer.parseInt(tokens.lexeme(size_literal)), type);
         }
         expect(TokenClass.SC);
         return new VarDecl(type, name);
@@ -372,125 +479,55 @@ public class Parser {
         }
     }
 
-    private Expr parseExp(){
-        Expr ret = parseLogicalTerm();
+    // the binary operator each token stands for, if any
+    private static final OP[] BINARY_OP = new OP[TokenClass.values().length];
+    // how tightly each operator binds; all of them associate to the left
+    private static final int[] PRECEDENCE = new int[OP.values().length];
 
-        while(accept(TokenClass.LOGOR)){
-            nextToken();
-            ret = new BinOp(ret, OP.OR, parseLogicalTerm());
-        }
-
-        return ret;
-    }
-
-    private Expr parseLogicalTerm(){
-        Expr ret = parsePredicate();
-
-        while(accept(TokenClass.LOGAND)){
-            nextToken();
-            ret = new BinOp(ret, OP.AND, parsePredicate());
-        }
-        return ret;
+    private static void binary(TokenClass tk, OP op, int precedence){
+        BINARY_OP[tk.ordinal()] = op;
+        PRECEDENCE[op.ordinal()] = precedence;
     }
 
-    private Expr parsePredicate(){
-        Expr ret = parseComparison();
-
-        while(accept(TokenClass.EQ, 
-            TokenClass.NE)){
-
-            Token op = expect(TokenClass.EQ, 
-                TokenClass.NE);
-
-            switch(op.tokenClass){
-                case EQ:
-                    ret = new BinOp(ret, OP.EQ, parseComparison());
-                    break;
-                case NE:
-                    ret = new BinOp(ret, OP.NE, parseComparison());
-                    break;
-            }
-        }
-        return ret;
+    static {
+        binary(TokenClass.LOGOR, OP.OR, 1);
+        binary(TokenClass.LOGAND, OP.AND, 2);
+        binary(TokenClass.EQ, OP.EQ, 3);
+        binary(TokenClass.NE, OP.NE, 3);
+        binary(TokenClass.LT, OP.LT, 4);
+        binary(TokenClass.GT, OP.GT, 4);
+        binary(TokenClass.GE, OP.GE, 4);
+        binary(TokenClass.LE, OP.LE, 4);
+        binary(TokenClass.PLUS, OP.ADD, 5);
+        binary(TokenClass.MINUS, OP.SUB, 5);
+        binary(TokenClass.ASTERIX, OP.MUL, 6);
+        binary(TokenClass.DIV, OP.DIV, 6);
+        binary(TokenClass.REM, OP.MOD, 6);
     }
 
-    private Expr parseComparison(){
-        Expr ret = parsePolynomial();
-
-        while(accept(
-            TokenClass.LT,
-            TokenClass.GT,
-            TokenClass.GE,
-            TokenClass.LE)){
-
-            Token op = expect(
-                TokenClass.LT,
-                TokenClass.GT,
-                TokenClass.GE,
-                TokenClass.LE);
-
-            switch(op.tokenClass){
-                case LT:
-                    ret = new BinOp(ret, OP.LT, parsePolynomial());
-                    break;
-                case GT:
-                    ret = new BinOp(ret, OP.GT, parsePolynomial());
-                    break;
-                case GE:
-                    ret = new BinOp(ret, OP.GE, parsePolynomial());
-                    break;
-                case LE:
-                    ret = new BinOp(ret, OP.LE, parsePolynomial());
-                    break;
-            }
-        }
-        return ret;
+    private Expr parseExp(){
+        return parseBinary(1);
     }
 
-    private Expr parsePolynomial(){
-        Expr ret = parseTerm();
-
-        while(accept(TokenClass.PLUS,
-            TokenClass.MINUS)){
-            Token op = expect(TokenClass.PLUS,
-                TokenClass.MINUS);
+    /*
+     * Precedence climbing: parses operands joined by operators binding at least as tightly as
+     * minPrecedence. The right operand of an operator only takes operators binding more tightly,
+     * so operators of the same precedence group to the left.
+     */
+    private Expr parseBinary(int minPrecedence){
+        Expr ret = parseFactor();
 
-            switch(op.tokenClass){
-                case PLUS:
-                    ret = new BinOp(ret, OP.ADD, parseTerm());
-                    break;
-                case MINUS:
-                    ret = new BinOp(ret, OP.SUB, parseTerm());
-                    break;
-            }
+        while(true){
+            OP op = BINARY_OP[tokens.kind(token).ordinal()];
+            if(op == null || PRECEDENCE[op.ordinal()] < minPrecedence)
+                break;
+            nextToken();
+            ret = new BinOp(ret, op, parseBinary(PRECEDENCE[op.ordinal()] + 1));
         }
 
         return ret;
     }
 
-    private Expr parseTerm(){
-        Expr ret = parseFactor();
-        while(accept(TokenClass.ASTERIX,
-                TokenClass.DIV,
-                TokenClass.REM)){
-            Token op = expect(TokenClass.ASTERIX,
-                TokenClass.DIV,
-                TokenClass.REM);
-            switch(op.tokenClass){
-                case ASTERIX:
-                    ret = new BinOp(ret, OP.MUL, parseFactor());
-                    break;
-                case DIV:
-                    ret = new BinOp(ret, OP.DIV, parseFactor());
-                    break;
-                case REM:
-                    ret = new BinOp(ret, OP.MOD, parseFactor());
-                    break;
-            }
-        }
-        return ret;
-    }
-
     private Expr parseFactor(){
         if(accept(TokenClass.PLUS)){
             nextToken();
@@ -505,7 +542,7 @@ public class Parser {
             nextToken();
             return new ValueAtExpr(parseFactor());
         }else if(accept(TokenClass.LPAR)){
-            if(isFirstOfType(lookAhead(1).tokenClass)){
+            if(isFirstOfType(lookAhead(1))){
                 //typecast
                 return parseTypeCast();
             }
@@ -521,27 +558,27 @@ public class Parser {
             parsed = parseExp();
             expect(TokenClass.RPAR);
         }else if(accept(TokenClass.INT_LITERAL, TokenClass.CHAR_LITERAL, TokenClass.STRING_LITERAL)){
-            Token literal = expect(TokenClass.INT_LITERAL, 
+            int literal = expect(TokenClass.INT_LITERAL, 
                 TokenClass.CHAR_LITERAL, 
                 TokenClass.STRING_LITERAL);//do nothing... these are expressions in themselves
 
-            switch(literal.tokenClass){
+            switch(tokens.kind(literal)){
                 case INT_LITERAL:
-                    parsed = new IntLiteral(Integer.parseInt(literal.data));
+                    parsed = new IntLiteral(Integer.parseInt(tokens.lexeme(literal)));
                     break;
                 case CHAR_LITERAL:
-                    parsed = new ChrLiteral(literal.data.charAt(0));
+                    parsed = new ChrLiteral(tokens.lexeme(literal).charAt(0));
                     break;
                 case STRING_LITERAL:
-                    parsed =  new StrLiteral(literal.data);
+                    parsed =  new StrLiteral(tokens.lexeme(literal));
                     break;
             }
         }else if(accept(TokenClass.IDENTIFIER)){
-            if(lookAhead(1).tokenClass == TokenClass.LPAR){
+            if(lookAhead(1) == TokenClass.LPAR){
                 parsed = parseFunctionCall();
             }else{
-                Token id = expect(TokenClass.IDENTIFIER); //consume identifier; it's an expr
-                parsed = new VarExpr(id.data);
+                int id = expect(TokenClass.IDENTIFIER); //consume identifier; it's an expr
+                parsed = new VarExpr(tokens.lexeme(id));
             }
         }else if(accept(TokenClass.SIZEOF)){
             parsed = parseSizeof();
@@ -559,16 +596,16 @@ public class Parser {
         }
 
         while(accept(TokenClass.LSBR, TokenClass.DOT)){
-            Token tok = expect(TokenClass.LSBR, TokenClass.DOT);
-            switch(tok.tokenClass){
+            int tok = expect(TokenClass.LSBR, TokenClass.DOT);
+            switch(tokens.kind(tok)){
                 case LSBR:
                     Expr inside = parseExp();
                     expect(TokenClass.RSBR);
                     parsed = new ArrayAccessExpr(parsed, inside);
                     break;
                 case DOT:
-                    Token id = expect(TokenClass.IDENTIFIER);
-                    parsed = new FieldAccessExpr(parsed, id.data);
+                    int id = expect(TokenClass.IDENTIFIER);
+                    parsed = new FieldAccessExpr(parsed, tokens.lexeme(id));
                     break;
             }
         }   
@@ -576,12 +613,12 @@ public class Parser {
     }
 
     private FunCallExpr parseFunctionCall(){
-        Token name = expect(TokenClass.IDENTIFIER);
+        int name = expect(TokenClass.IDENTIFIER);
         expect(TokenClass.LPAR);
         LinkedList<Expr> args = new LinkedList<Expr>();
         if(accept(TokenClass.RPAR)){
             nextToken();
-            return new FunCallExpr(name.data, args);
+            return new FunCallExpr(tokens.lexeme(name), args);
         }
         
         while(true){
@@ -593,7 +630,7 @@ public class Parser {
             }
         }
         expect(TokenClass.RPAR);
-        return new FunCallExpr(name.data, args);
+        return new FunCallExpr(tokens.lexeme(name), args);
 
     }
 
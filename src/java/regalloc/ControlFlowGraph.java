@@ -4,69 +4,96 @@ import gen.asm.*;
 import gen.asm.AssemblyItem.*;
 import gen.asm.AssemblyItem.Instruction.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.Stack;
-
 
+/**
+ * Basic block control flow graph of a text section.
+ *
+ * Blocks are numbered in program order and hold a range of the section's instructions;
+ * block 0 is the entry. Reverse postorder, dominators and loop nesting are computed the
+ * first time they are asked for and kept, so the liveness analysis, the allocator and
+ * anything else working on the section can share one graph.
+ */
 public class ControlFlowGraph{
 
-    private static class Node{
-        public Node(AssemblyItem.Instruction instruction){
-            this.instruction = instruction;
-            this.incomingEdges = new LinkedList<>();
-            this.outgoingEdges = new LinkedList<>();
-            this.liveIn = new ArrayList<>();
-            this.liveOut = new ArrayList<>();
-
-            this.name = "I"+nameNum++;
-        }
-
-        public List<Node> outgoingEdges;
-        public List<Node> incomingEdges;
-
-        public final String name;
-
-        public final AssemblyItem.Instruction instruction;
-
-        public ArrayList<Register> liveIn;
-        public ArrayList<Register> liveOut;
-
-        private static int nameNum = 1;
-
-        public String dotHeader(){
-            return name +" [label=\""+instruction.toString()+"\"];\n";
+    public String toDot(){
+        StringBuilder ret = new StringBuilder("digraph CFG{\n");
+        for(int b=0; b!=blockCount(); b++){
+            ret.append("B").append(b).append(" [shape=box,label=\"");
+            for(int i=blockStart(b); i!=blockEnd(b); i++){
+                ret.append(instructions.get(i).toString()).append("\\l");
+            }
+            ret.append("\"];\n");
         }
-
-        public String dotEdges(){
-            String ret = "";
-            for(Node node: outgoingEdges){
-                ret += name + " -> " + node.name + ";\n";
+        ret.append("\n");
+        for(int b=0; b!=blockCount(); b++){
+            for(int succ: successors[b]){
+                ret.append("B").append(b).append(" -> B").append(succ).append(";\n");
             }
-            return ret;
         }
+
+        ret.append("}");
+        return ret.toString();
     }
 
-    public String toDot(){
-        String ret="digraph CFG{\n";
-        for(Node node: nodes){
-            ret += node.dotHeader();
+    private final List<Instruction> instructions;
+
+    //basic blocks: block b is instructions blockStarts[b] to blockStarts[b+1]-1
+    private final int[] blockStarts;
+    private final int[][] successors;
+    private final int[][] predecessors;
+
+    //computed on demand
+    private int[] postorder;
+    private int[] reversePostorder;
+    private int[] idom;
+    private int[] loopDepth;
+    private int[] blockOf;
+
+    private ControlFlowGraph(List<Instruction> instructions, int[] blockStarts, int[][] successors){ //only generated by generateControlFlowGraph
+        this.instructions = instructions;
+        this.blockStarts = blockStarts;
+        this.successors = successors;
+
+        int blocks = successors.length;
+        int[] predCount = new int[blocks];
+        for(int[] succs: successors){
+            for(int succ: succs){
+                predCount[succ]++;
+            }
         }
-        ret +="\n";
-        for(Node node: nodes){
-            ret += node.dotEdges();
+        this.predecessors = new int[blocks][];
+        for(int b=0; b!=blocks; b++){
+            predecessors[b] = new int[predCount[b]];
+            predCount[b] = 0;
         }
+        for(int b=0; b!=blocks; b++){
+            for(int succ: successors[b]){
+                predecessors[succ][predCount[succ]++] = b;
+            }
+        }
+    }
 
-        ret +="}";
-        return ret;
+    static boolean isCall(Instruction i){
+        return i instanceof Jump && ((Jump)i).opcode.equals("jal");
     }
 
-    private final List<Node> nodes;
+    //unconditional transfer; the next instruction never follows
+    private static boolean endsFlow(Instruction i){
+        return (i instanceof Jump && !isCall(i)) || i instanceof Jr;
+    }
 
-    private ControlFlowGraph(List<Node> nodes){ //only generated by generateControlFlowGraph
-        this.nodes = nodes;
+    private static Label target(Instruction i){
+        if(i instanceof Jump && !isCall(i)){
+            return ((Jump)i).label;
+        }
+        if(i instanceof Branch){
+            return ((Branch)i).label;
+        }
+        return null;
     }
 
     public static ControlFlowGraph generateControlFlowGraph(AssemblyProgram.Section textSection){
@@ -74,199 +101,306 @@ public class ControlFlowGraph{
             throw new IllegalArgumentException("Can't generate CFG from data section.");
         }
 
-        //Graph to be returned
-        List<Node> nodes = new LinkedList<Node>();
-
-        //Structures to help building the graph
-        Map<Label, Node> labelMap = new HashMap<Label, Node>();   //So a jump knows where to jump to
-        Node lastNode = null;                                   //previous node to link to next
-        List<Label> pendingLables = new LinkedList<>();        //labels not yet assigned to an instruction
-        Map<Label, Node> pendingJumps = new HashMap<>();       //jumps to labels defined after them. 
-                                                                //In this case, node is the jumping node
+        List<Instruction> instructions = new ArrayList<>();
+        List<Integer> starts = new ArrayList<>();
+        Map<Label, Integer> labelMap = new HashMap<>();   //So a jump knows which block to jump to
 
+        //a block starts at the first instruction, at any labelled instruction and after any jump or branch
+        boolean leader = true;
+        List<Label> pendingLabels = new ArrayList<>();        //labels not yet assigned to an instruction
         for(AssemblyItem i: textSection.items){
             if(i instanceof Label){
-                pendingLables.add(
-                        ((Label) i)
-                    );
+                pendingLabels.add((Label) i);
+                leader = true;
             }
             if(i instanceof Instruction){
-                //generate node
-                Node node = new Node((Instruction)i);
-
-                //link previous node
-                if(lastNode != null){
-                    lastNode.outgoingEdges.add(node);
-                    node.incomingEdges.add(lastNode);
+                Instruction instruction = (Instruction) i;
+                if(leader){
+                    starts.add(instructions.size());
+                    leader = false;
                 }
-
-                //setup as next previous node
-                lastNode = node;
-
-                for(Label s: pendingLables){
-                    //link labels
-                    labelMap.put(s, node);
-
-                    //handle pending jumps
-                    Node jumpingHereNode = pendingJumps.get(s);
-                    if(jumpingHereNode != null){
-                        jumpingHereNode.outgoingEdges.add(node);
-                        node.incomingEdges.add(jumpingHereNode);
-                        pendingJumps.remove(s);
-                    }
+                for(Label label: pendingLabels){
+                    labelMap.put(label, starts.size() - 1);
                 }
-                
-
-                //clear pending labels
-                pendingLables.clear();
-
-                //handle jumps
-                Label target = null;
+                pendingLabels.clear();
 
-                if(i instanceof Jump){
-                    Jump jump = (Jump)i;
-                    if(jump.opcode != "jal"){ //jal is function call
-                        target = jump.label;
-                        lastNode = null; //unconditional jump; next instruction never follows
-                    }
-                }
+                instructions.add(instruction);
 
-                if(i instanceof Jr){
-                    //only jr $ra is generated
-                    lastNode = null; //unconditional...
+                if(endsFlow(instruction) || instruction instanceof Branch){
+                    leader = true;
                 }
+            }
+        }
 
-                if(i instanceof Branch){
-                    //any branch 
-                    target = ((Branch)i).label;
+        int blocks = starts.size();
+        int[] blockStarts = new int[blocks + 1];
+        for(int b=0; b!=blocks; b++){
+            blockStarts[b] = starts.get(b);
+        }
+        blockStarts[blocks] = instructions.size();
 
-                    //conditional; next instruction can follow
-                }
+        int[][] successors = new int[blocks][];
+        for(int b=0; b!=blocks; b++){
+            Instruction last = instructions.get(blockStarts[b+1]-1);
+            int[] succs = new int[2];
+            int count = 0;
 
-                if(target != null){
-                    Node targetNode = labelMap.get(target);
+            //fall through
+            if(!endsFlow(last) && b+1 < blocks){
+                succs[count++] = b+1;
+            }
 
-                    if(targetNode != null){
-                        node.outgoingEdges.add(targetNode);
-                        targetNode.incomingEdges.add(node);
-                    }else{
-                        pendingJumps.put(target, node);
-                    }
+            //jump target; labels with no instruction after them lead nowhere
+            Label target = target(last);
+            if(target != null){
+                Integer targetBlock = labelMap.get(target);
+                if(targetBlock != null && (count == 0 || succs[0] != targetBlock)){
+                    succs[count++] = targetBlock;
                 }
-
-                //append node
-                nodes.add(node);
             }
+            successors[b] = Arrays.copyOf(succs, count);
         }
 
-        ControlFlowGraph cfg =  new ControlFlowGraph(nodes);
+        ControlFlowGraph cfg = new ControlFlowGraph(instructions, blockStarts, successors);
         //System.out.println(cfg.toDot());
         return cfg;
     }
 
-    //Do liveness analysis on this CFG
-    private void analyseLiveness(){
-        //CFG should already have empty liveIn and liveOut sets, as generated by the node constructor
+    public List<Instruction> instructions(){
+        return instructions;
+    }
+
+    public int blockCount(){
+        return successors.length;
+    }
+
+    //index of the first instruction of the block
+    public int blockStart(int block){
+        return blockStarts[block];
+    }
+
+    //index after the last instruction of the block
+    public int blockEnd(int block){
+        return blockStarts[block+1];
+    }
 
-        //initialize the liveIns to the registers the nodes use
-        for(Node node: nodes){
-            for(Register reg: node.instruction.uses()){
-                if(reg.isVirtual())
-                    node.liveIn.add(reg);
+    //block holding the instruction at this index
+    public int blockOf(int instruction){
+        if(blockOf == null){
+            int[] map = new int[instructions.size()];
+            for(int b=0; b!=blockCount(); b++){
+                Arrays.fill(map, blockStarts[b], blockStarts[b+1], b);
             }
+            blockOf = map;
         }
+        return blockOf[instruction];
+    }
 
-        boolean done = true;
+    public int[] successors(int block){
+        return successors[block];
+    }
 
-        do{
-            done = true;
-            for(Node node: nodes){
-                //algoridm
+    public int[] predecessors(int block){
+        return predecessors[block];
+    }
 
-                //liveOut = union of succ liveIn
-                for(Node succ: node.outgoingEdges){
-                    for(Register reg: succ.liveIn){
-                        if(!node.liveOut.contains(reg)){
-                            done = false;
-                            node.liveOut.add(reg);
-                        }
-                    }
-                }
+    /**
+     * All blocks in postorder: depth first from the entry, then from any block left unreachable.
+     */
+    public int[] postorder(){
+        if(postorder == null){
+            computeOrders();
+        }
+        return postorder;
+    }
+
+    /**
+     * Blocks reachable from the entry, in reverse postorder.
+     */
+    public int[] reversePostorder(){
+        if(reversePostorder == null){
+            computeOrders();
+        }
+        return reversePostorder;
+    }
 
-                //liveIn = use union (out - def)
-                //use should already be there
-                for(Register reg: node.liveOut){
-                    if((
-                            node.instruction.def() == null 
-                            || !node.instruction.def().equals(reg)) 
-                        && !node.liveIn.contains(reg)){
-                        done = false;
-                        node.liveIn.add(reg);
+    private void computeOrders(){
+        int blocks = blockCount();
+        int[] order = new int[blocks];
+        int count = 0;
+        int reachable = 0;
+        boolean[] visited = new boolean[blocks];
+
+        //explicit stack of (block, next successor to try)
+        int[] stack = new int[blocks];
+        int[] nextSucc = new int[blocks];
+
+        for(int root=0; root!=blocks; root++){
+            if(visited[root])continue;
+            int depth = 0;
+            stack[0] = root;
+            nextSucc[0] = 0;
+            visited[root] = true;
+            while(depth >= 0){
+                int b = stack[depth];
+                if(nextSucc[depth] < successors[b].length){
+                    int succ = successors[b][nextSucc[depth]++];
+                    if(!visited[succ]){
+                        visited[succ] = true;
+                        depth++;
+                        stack[depth] = succ;
+                        nextSucc[depth] = 0;
                     }
+                }else{
+                    order[count++] = b;
+                    depth--;
                 }
-
             }
-        }while(!done);
-    }
-
-    private static void addMutualEdge(LivenessGraph.Node n1, LivenessGraph.Node n2){
-        if(!n1.edges.contains(n2)){
-            n1.edges.add(n2);
+            if(root == 0){
+                reachable = count;
+            }
         }
-        if(!n2.edges.contains(n1)){
-            n2.edges.add(n1);
+
+        int[] rpo = new int[reachable];
+        for(int i=0; i!=reachable; i++){
+            rpo[i] = order[reachable - 1 - i];
         }
+
+        postorder = order;
+        reversePostorder = rpo;
     }
 
-    public LivenessGraph generateLivenessGraph(){
-        analyseLiveness();
+    /**
+     * Immediate dominator of a block; the entry is its own, unreachable blocks have -1.
+     * Cooper, Harvey and Kennedy's iterative algorithm over reverse postorder.
+     */
+    public int immediateDominator(int block){
+        if(idom == null){
+            computeDominators();
+        }
+        return idom[block];
+    }
 
-        Map<Register, LivenessGraph.Node> nodeMap = new HashMap<>();
+    public boolean dominates(int dominator, int block){
+        if(immediateDominator(block) == -1)return false;
+        while(block != dominator){
+            int up = idom[block];
+            if(up == block)return false; //reached the entry
+            block = up;
+        }
+        return true;
+    }
 
-        for(Node node: nodes){
-            for(Register reg: node.liveIn){
+    private void computeDominators(){
+        int blocks = blockCount();
+        int[] doms = new int[blocks];
+        Arrays.fill(doms, -1);
+        if(blocks == 0){
+            idom = doms;
+            return;
+        }
 
-                //get liveness graph node for this register
-                LivenessGraph.Node regNode = nodeMap.get(reg);
-                if(regNode == null){
-                    regNode = new LivenessGraph.Node(reg);
-                    nodeMap.put(reg, regNode);
-                }
+        int[] rpo = reversePostorder();
+        int[] rpoIndex = new int[blocks];
+        Arrays.fill(rpoIndex, -1);
+        for(int i=0; i!=rpo.length; i++){
+            rpoIndex[rpo[i]] = i;
+        }
 
-                for(Register regPrime: node.liveIn){
-                    if(regPrime == reg){
-                        break;
+        doms[0] = 0;
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(int i=1; i<rpo.length; i++){
+                int b = rpo[i];
+                int newIdom = -1;
+                for(int pred: predecessors[b]){
+                    if(doms[pred] == -1)continue; //not processed yet, or unreachable
+                    if(newIdom == -1){
+                        newIdom = pred;
+                    }else{
+                        //intersect: walk both fingers up the tree until they meet
+                        int f1 = pred;
+                        int f2 = newIdom;
+                        while(f1 != f2){
+                            while(rpoIndex[f1] > rpoIndex[f2]) f1 = doms[f1];
+                            while(rpoIndex[f2] > rpoIndex[f1]) f2 = doms[f2];
+                        }
+                        newIdom = f1;
                     }
-
-                    //all regPrimes here should already be in the nodemap
-                    addMutualEdge(regNode, nodeMap.get(regPrime)); 
-
+                }
+                if(doms[b] != newIdom){
+                    doms[b] = newIdom;
+                    changed = true;
                 }
             }
+        }
+        idom = doms;
+    }
+
+    /**
+     * Number of natural loops containing the block; 0 outside any loop.
+     * Loops sharing a header count once.
+     */
+    public int loopDepth(int block){
+        if(loopDepth == null){
+            computeLoops();
+        }
+        return loopDepth[block];
+    }
 
-            for(Register reg: node.liveOut){
+    public int maxLoopDepth(){
+        int max = 0;
+        for(int b=0; b!=blockCount(); b++){
+            max = Math.max(max, loopDepth(b));
+        }
+        return max;
+    }
 
-                //get liveness graph node for this register
-                LivenessGraph.Node regNode = nodeMap.get(reg);
-                if(regNode == null){
-                    regNode = new LivenessGraph.Node(reg);
-                    nodeMap.put(reg, regNode);
+    private void computeLoops(){
+        int blocks = blockCount();
+        int[] depth = new int[blocks];
+        boolean[] inLoop = new boolean[blocks];
+        int[] stack = new int[blocks];
+
+        for(int header=0; header!=blocks; header++){
+            //back edges: header dominates the block jumping to it
+            Arrays.fill(inLoop, false);
+            int top = 0;
+            boolean isHeader = false;
+            for(int pred: predecessors[header]){
+                if(dominates(header, pred)){
+                    isHeader = true;
+                    if(!inLoop[pred] && pred != header){
+                        inLoop[pred] = true;
+                        stack[top++] = pred;
+                    }
                 }
-
-                for(Register regPrime: node.liveOut){
-                    if(regPrime == reg){
-                        break;
+            }
+            if(!isHeader)continue;
+
+            //body: everything reaching a back edge without going through the header
+            inLoop[header] = true;
+            while(top != 0){
+                int b = stack[--top];
+                for(int pred: predecessors[b]){
+                    if(!inLoop[pred] && immediateDominator(pred) != -1){
+                        inLoop[pred] = true;
+                        stack[top++] = pred;
                     }
+                }
+            }
 
-                    //all regPrimes here should already be in the nodemap
-                    addMutualEdge(regNode, nodeMap.get(regPrime)); 
-
+            for(int b=0; b!=blocks; b++){
+                if(inLoop[b]){
+                    depth[b]++;
                 }
             }
         }
+        loopDepth = depth;
+    }
 
-        LivenessGraph lg = new LivenessGraph(new ArrayList<>(nodeMap.values()));
-        //System.out.println(lg.toDot());
-        return lg;
+    public LivenessGraph generateLivenessGraph(){
+        return LivenessGraph.build(this, Liveness.analyse(this));
     }
-}
\ No newline at end of file
+}
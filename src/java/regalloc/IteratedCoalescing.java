@@ -0,0 +1,405 @@
+package regalloc;
+
+import java.util.Arrays;
+
+/**
+ * George and Appel's iterated register coalescing over a LivenessGraph.
+ *
+ * Moves are coalesced when the Briggs or the George test says it can't make the graph
+ * harder to colour, interleaved with simplify; a move is frozen (given up on) only when
+ * nothing else can make progress. The graph gets the edges of coalesced nodes added to it.
+ * There are no precoloured nodes: the graph only holds virtual registers.
+ */
+class IteratedCoalescing{
+
+    //node states; each node is in exactly one
+    private static final int SIMPLIFY = 0;
+    private static final int FREEZE = 1;
+    private static final int SPILL = 2;
+    private static final int SELECT = 3;   //on the select stack
+    private static final int COALESCED = 4;
+    private static final int COLOURED = 5;
+    private static final int SPILLED = 6;
+
+    //move states
+    private static final int MOVE_WORKLIST = 0;
+    private static final int MOVE_ACTIVE = 1;  //not ready to be coalesced yet
+    private static final int MOVE_COALESCED = 2;
+    private static final int MOVE_CONSTRAINED = 3; //ends interfere
+    private static final int MOVE_FROZEN = 4;
+
+    private final LivenessGraph graph;
+    private final int k;
+    private final int n;
+    private final boolean spillCost;
+
+    private final int[] degree;
+    private final int[] state;
+    private final int[] alias;
+    private final double[] weight; //of a node and everything coalesced into it
+    private final boolean[] crossesCall; //by a node or anything coalesced into it
+
+    //the SIMPLIFY, FREEZE and SPILL worklists as doubly linked lists
+    private final int[] head = {-1, -1, -1};
+    private final int[] next;
+    private final int[] prev;
+
+    private final int[] selectStack;
+    private int selectCount = 0;
+
+    private final int[] moveState;
+    private final int[][] moveList; //moves each node takes part in
+    private final int[] moveListSize;
+    private int[] moveWorklist;
+    private int moveWorklistSize = 0;
+
+    //scratch for set unions
+    private final int[] mark;
+    private int stamp = 0;
+
+    /**
+     * @param spillCost pick potential spills by least weight / degree rather than by highest degree
+     */
+    IteratedCoalescing(LivenessGraph graph, int k, boolean spillCost){
+        this.graph = graph;
+        this.k = k;
+        this.n = graph.size();
+        this.spillCost = spillCost;
+
+        this.degree = new int[n];
+        this.state = new int[n];
+        this.alias = new int[n];
+        this.weight = new double[n];
+        this.crossesCall = new boolean[n];
+        this.next = new int[n];
+        this.prev = new int[n];
+        this.selectStack = new int[n];
+        this.mark = new int[n];
+
+        int moves = graph.moveCount();
+        this.moveState = new int[moves];
+        this.moveWorklist = new int[Math.max(moves, 1)];
+        this.moveListSize = new int[n];
+        for(int m=0; m!=moves; m++){
+            moveListSize[graph.moveDestination(m)]++;
+            moveListSize[graph.moveSource(m)]++;
+        }
+        this.moveList = new int[n][];
+        for(int i=0; i!=n; i++){
+            moveList[i] = new int[moveListSize[i]];
+            moveListSize[i] = 0;
+        }
+        for(int m=0; m!=moves; m++){
+            addToMoveList(graph.moveDestination(m), m);
+            addToMoveList(graph.moveSource(m), m);
+            moveState[m] = MOVE_WORKLIST;
+            moveWorklist[moveWorklistSize++] = m;
+        }
+    }
+
+    /**
+     * @return colour of each node, -1 for spilled nodes
+     */
+    int[] colour(){
+        makeWorklist();
+
+        while(true){
+            if(head[SIMPLIFY] != -1){
+                simplify();
+            }else if(moveWorklistSize != 0){
+                coalesce();
+            }else if(head[FREEZE] != -1){
+                freeze();
+            }else if(head[SPILL] != -1){
+                selectSpill();
+            }else{
+                break;
+            }
+        }
+
+        return assignColours();
+    }
+
+    private void makeWorklist(){
+        for(int node=0; node!=n; node++){
+            alias[node] = node;
+            degree[node] = graph.degree(node);
+            weight[node] = graph.weight(node);
+            crossesCall[node] = graph.crossesCall(node);
+            if(degree[node] >= k){
+                push(SPILL, node);
+            }else if(moveRelated(node)){
+                push(FREEZE, node);
+            }else{
+                push(SIMPLIFY, node);
+            }
+        }
+    }
+
+    private void simplify(){
+        int node = head[SIMPLIFY];
+        unlink(node);
+        state[node] = SELECT;
+        selectStack[selectCount++] = node;
+
+        int[] adjacent = graph.neighbours(node);
+        for(int e=0; e!=graph.degree(node); e++){
+            if(isAdjacent(adjacent[e])){
+                decrementDegree(adjacent[e]);
+            }
+        }
+    }
+
+    //neighbours that are still in the graph
+    private boolean isAdjacent(int node){
+        return state[node] != SELECT && state[node] != COALESCED;
+    }
+
+    private void decrementDegree(int node){
+        int d = degree[node];
+        degree[node] = d - 1;
+        if(d == k){
+            enableMoves(node);
+            int[] adjacent = graph.neighbours(node);
+            for(int e=0; e!=graph.degree(node); e++){
+                if(isAdjacent(adjacent[e])){
+                    enableMoves(adjacent[e]);
+                }
+            }
+
+            if(state[node] == SPILL){
+                unlink(node);
+                push(moveRelated(node) ? FREEZE : SIMPLIFY, node);
+            }
+        }
+    }
+
+    private void enableMoves(int node){
+        for(int i=0; i!=moveListSize[node]; i++){
+            int m = moveList[node][i];
+            if(moveState[m] == MOVE_ACTIVE){
+                moveState[m] = MOVE_WORKLIST;
+                pushMove(m);
+            }
+        }
+    }
+
+    private void coalesce(){
+        int m = moveWorklist[--moveWorklistSize];
+        if(moveState[m] != MOVE_WORKLIST)return;
+
+        int u = getAlias(graph.moveDestination(m));
+        int v = getAlias(graph.moveSource(m));
+
+        if(u == v){
+            moveState[m] = MOVE_COALESCED;
+            addWorklist(u);
+        }else if(graph.interferes(u, v)){
+            moveState[m] = MOVE_CONSTRAINED;
+            addWorklist(u);
+            addWorklist(v);
+        }else if(george(u, v) || briggs(u, v)){
+            moveState[m] = MOVE_COALESCED;
+            combine(u, v);
+            addWorklist(u);
+        }else{
+            moveState[m] = MOVE_ACTIVE;
+        }
+    }
+
+    private void addWorklist(int node){
+        if(state[node] == FREEZE && !moveRelated(node) && degree[node] < k){
+            unlink(node);
+            push(SIMPLIFY, node);
+        }
+    }
+
+    //every neighbour of v already interferes with u, or is of insignificant degree
+    private boolean george(int u, int v){
+        int[] adjacent = graph.neighbours(v);
+        for(int e=0; e!=graph.degree(v); e++){
+            int t = adjacent[e];
+            if(!isAdjacent(t))continue;
+            if(degree[t] >= k && !graph.interferes(t, u)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //the combined node would have fewer than k neighbours of significant degree
+    private boolean briggs(int u, int v){
+        stamp++;
+        int significant = 0;
+        for(int node: new int[]{u, v}){
+            int[] adjacent = graph.neighbours(node);
+            for(int e=0; e!=graph.degree(node); e++){
+                int t = adjacent[e];
+                if(!isAdjacent(t) || mark[t] == stamp)continue;
+                mark[t] = stamp;
+                if(degree[t] >= k){
+                    significant++;
+                }
+            }
+        }
+        return significant < k;
+    }
+
+    private void combine(int u, int v){
+        unlink(v);
+        state[v] = COALESCED;
+        alias[v] = u;
+        weight[u] += weight[v];
+        crossesCall[u] |= crossesCall[v];
+
+        for(int i=0; i!=moveListSize[v]; i++){
+            addToMoveList(u, moveList[v][i]);
+        }
+        enableMoves(v);
+
+        int[] adjacent = graph.neighbours(v);
+        for(int e=0; e!=graph.degree(v); e++){
+            int t = adjacent[e];
+            if(!isAdjacent(t))continue;
+            if(!graph.interferes(t, u) && t != u){
+                graph.addEdge(t, u);
+                degree[t]++;
+                degree[u]++;
+            }
+            decrementDegree(t);
+        }
+
+        if(degree[u] >= k && state[u] == FREEZE){
+            unlink(u);
+            push(SPILL, u);
+        }
+    }
+
+    /**
+     * @return the node this one was coalesced into, or the node itself
+     */
+    int alias(int node){
+        return getAlias(node);
+    }
+
+    private int getAlias(int node){
+        while(state[node] == COALESCED){
+            node = alias[node];
+        }
+        return node;
+    }
+
+    private void freeze(){
+        int node = head[FREEZE];
+        unlink(node);
+        push(SIMPLIFY, node);
+        freezeMoves(node);
+    }
+
+    private void freezeMoves(int u){
+        for(int i=0; i!=moveListSize[u]; i++){
+            int m = moveList[u][i];
+            if(moveState[m] != MOVE_ACTIVE && moveState[m] != MOVE_WORKLIST)continue;
+
+            int x = graph.moveDestination(m);
+            int y = graph.moveSource(m);
+            int v = getAlias(y) == getAlias(u) ? getAlias(x) : getAlias(y);
+            moveState[m] = MOVE_FROZEN;
+
+            if(state[v] == FREEZE && !moveRelated(v)){
+                unlink(v);
+                push(SIMPLIFY, v);
+            }
+        }
+    }
+
+    //potential spill: the node of highest degree, or the cheapest to spill
+    private void selectSpill(){
+        int best = head[SPILL];
+        for(int node = next[best]; node != -1; node = next[node]){
+            if(spillCost ? cost(node) < cost(best) : degree[node] > degree[best]){
+                best = node;
+            }
+        }
+        unlink(best);
+        push(SIMPLIFY, best);
+        freezeMoves(best);
+    }
+
+    private double cost(int node){
+        return weight[node] / degree[node];
+    }
+
+    private int[] assignColours(){
+        int[] colours = new int[n];
+        Arrays.fill(colours, -1);
+        boolean[] taken = new boolean[k];
+
+        while(selectCount != 0){
+            int node = selectStack[--selectCount];
+            Arrays.fill(taken, false);
+            int[] adjacent = graph.neighbours(node);
+            for(int e=0; e!=graph.degree(node); e++){
+                int w = getAlias(adjacent[e]);
+                if(state[w] == COLOURED){
+                    taken[colours[w]] = true;
+                }
+            }
+
+            colours[node] = LivenessGraph.pickColour(taken, crossesCall[node]);
+            state[node] = colours[node] == -1 ? SPILLED : COLOURED;
+        }
+
+        for(int node=0; node!=n; node++){
+            if(state[node] == COALESCED){
+                colours[node] = colours[getAlias(node)];
+            }
+        }
+        return colours;
+    }
+
+    private boolean moveRelated(int node){
+        for(int i=0; i!=moveListSize[node]; i++){
+            int m = moveList[node][i];
+            if(moveState[m] == MOVE_ACTIVE || moveState[m] == MOVE_WORKLIST){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addToMoveList(int node, int m){
+        if(moveListSize[node] == moveList[node].length){
+            moveList[node] = Arrays.copyOf(moveList[node], Math.max(4, moveListSize[node]*2));
+        }
+        moveList[node][moveListSize[node]++] = m;
+    }
+
+    private void pushMove(int m){
+        if(moveWorklistSize == moveWorklist.length){
+            moveWorklist = Arrays.copyOf(moveWorklist, moveWorklist.length*2);
+        }
+        moveWorklist[moveWorklistSize++] = m;
+    }
+
+    private void push(int list, int node){
+        state[node] = list;
+        prev[node] = -1;
+        next[node] = head[list];
+        if(head[list] != -1){
+            prev[head[list]] = node;
+        }
+        head[list] = node;
+    }
+
+    private void unlink(int node){
+        if(prev[node] != -1){
+            next[prev[node]] = next[node];
+        }else{
+            head[state[node]] = next[node];
+        }
+        if(next[node] != -1){
+            prev[next[node]] = prev[node];
+        }
+    }
+}
@@ -2,6 +2,8 @@ package regalloc;
 
 import gen.asm.*;
 import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 public class LessNaiveRegAlloc{
 
@@ -14,44 +16,67 @@ public class LessNaiveRegAlloc{
         };
 
     public static AssemblyProgram run(AssemblyProgram dirty){
+        return run(dirty, true, true);
+    }
+
+    /**
+     * @param coalesce coalesce moves while colouring (iterated register coalescing)
+     * @param spillCost spill the registers with the fewest uses and defs, weighted by loop depth, per
+     *                  interference; otherwise spill the registers of highest degree
+     */
+    public static AssemblyProgram run(AssemblyProgram dirty, boolean coalesce, boolean spillCost){
+        return run(dirty, section -> {
+            ControlFlowGraph cfg = ControlFlowGraph.generateControlFlowGraph(section);
+            LivenessGraph lg = cfg.generateLivenessGraph();
+            ArrayList<Register> regList = new ArrayList<>();
+            Collections.addAll(regList, availableArchRegisters);
+            return lg.generateRegisterMap(section, regList, coalesce, spillCost);
+        });
+    }
+
+    /**
+     * Text sections are allocated independently of each other, so they are done in parallel on the
+     * common ForkJoinPool; the output keeps the order of the input sections.
+     */
+    static AssemblyProgram run(AssemblyProgram dirty, Function<AssemblyProgram.Section, LivenessGraph.RegisterMap> allocator){
+        List<AssemblyProgram.Section> allocated = dirty.sections.parallelStream()
+            .map(section -> section.type == AssemblyProgram.Section.Type.DATA
+                ? section
+                : rewrite(section, allocator.apply(section)))
+            .collect(Collectors.toList());
+
         AssemblyProgram out = new AssemblyProgram();
-        for(AssemblyProgram.Section section:dirty.sections){
-            if(section.type == AssemblyProgram.Section.Type.DATA){
-                out.emitSection(section);
-            }else{
-                ControlFlowGraph cfg = ControlFlowGraph.generateControlFlowGraph(section);
-                LivenessGraph lg = cfg.generateLivenessGraph();
-                ArrayList<Register> regList = new ArrayList<>();
-                Collections.addAll(regList, availableArchRegisters);
-                LivenessGraph.RegisterMap rm = 
-                    lg.generateRegisterMap(regList);
-
-                out.emitSection(rm.generateDataSection());
-                AssemblyProgram.Section newText = out.newSection(AssemblyProgram.Section.Type.TEXT);
-
-                section.items.forEach(item ->
-                    item.accept(new AssemblyItemVisitor() {
-                        public void visitComment(AssemblyItem.Comment comment) {
-                            newText.emit(comment);
-                        }
-                        public void visitLabel(AssemblyItem.Label label) {
-                            newText.emit(label);
-                        }
-
-                        public void visitDirective(AssemblyItem.Directive directive) {
-                            newText.emit(directive);
-                        }
-
-                        public void visitInstruction(AssemblyItem.Instruction instruction) {
-                            newText.emit("Original Instruction: "+instruction.toString());
-                            List<AssemblyItem.Instruction> newInstructions = rm.apply(instruction);
-                            for(AssemblyItem.Instruction i: newInstructions){
-                                newText.emit(i);
-                            }
-                        }
-                    }));
-            }
+        for(AssemblyProgram.Section section: allocated){
+            out.emitSection(section);
         }
         return out;
     }
-}
\ No newline at end of file
+
+    //the section with its virtual registers replaced by the register map
+    private static AssemblyProgram.Section rewrite(AssemblyProgram.Section section, LivenessGraph.RegisterMap rm){
+        AssemblyProgram.Section newText = new AssemblyProgram.Section(AssemblyProgram.Section.Type.TEXT);
+
+        section.items.forEach(item ->
+            item.accept(new AssemblyItemVisitor() {
+                public void visitComment(AssemblyItem.Comment comment) {
+                    newText.emit(comment);
+                }
+                public void visitLabel(AssemblyItem.Label label) {
+                    newText.emit(label);
+                }
+
+                public void visitDirective(AssemblyItem.Directive directive) {
+                    newText.emit(directive);
+                }
+
+                public void visitInstruction(AssemblyItem.Instruction instruction) {
+                    newText.emit("Original Instruction: "+instruction.toString());
+                    List<AssemblyItem.Instruction> newInstructions = rm.apply(instruction);
+                    for(AssemblyItem.Instruction i: newInstructions){
+                        newText.emit(i);
+                    }
+                }
+            }));
+        return newText;
+    }
+}
@@ -0,0 +1,149 @@
+package regalloc;
+
+import gen.asm.*;
+import gen.asm.AssemblyItem.*;
+import java.util.*;
+
+/**
+ * Poletto and Sarkar's linear scan allocation, for when building an interference graph takes too long.
+ *
+ * The instructions of a section are taken in program order and each virtual register gets one live
+ * interval covering everywhere it is live. Intervals are visited by increasing start, keeping the active
+ * ones sorted by end; when no register is free, whichever of the current and active intervals ends last
+ * is spilled.
+ */
+public class LinearScanRegAlloc{
+
+    public static AssemblyProgram run(AssemblyProgram dirty){
+        return LessNaiveRegAlloc.run(dirty, section -> {
+            ControlFlowGraph cfg = ControlFlowGraph.generateControlFlowGraph(section);
+            ArrayList<Register> regList = new ArrayList<>();
+            Collections.addAll(regList, LessNaiveRegAlloc.availableArchRegisters);
+            return allocate(section, cfg, regList);
+        });
+    }
+
+    static LivenessGraph.RegisterMap allocate(AssemblyProgram.Section section, ControlFlowGraph cfg, List<Register> availableRegisters){
+        Liveness liveness = Liveness.analyse(cfg);
+        int n = liveness.registerCount();
+        int k = availableRegisters.size() - 3; //18 - 3 for spilling
+
+        //positions: a use by instruction i is at 2i and a def at 2i+1,
+        //so a register can be defined into one whose last use is the same instruction
+        int[] start = new int[n];
+        int[] end = new int[n];
+        Arrays.fill(start, Integer.MAX_VALUE);
+        Arrays.fill(end, -1);
+
+        for(int b=0; b!=cfg.blockCount(); b++){
+            long[] in = liveness.liveIn(b);
+            for(int reg = Liveness.nextSet(in, 0); reg != -1; reg = Liveness.nextSet(in, reg+1)){
+                extend(start, end, reg, 2*cfg.blockStart(b));
+            }
+            long[] out = liveness.liveOut(b);
+            for(int reg = Liveness.nextSet(out, 0); reg != -1; reg = Liveness.nextSet(out, reg+1)){
+                extend(start, end, reg, 2*cfg.blockEnd(b) - 1);
+            }
+            for(int i=cfg.blockStart(b); i!=cfg.blockEnd(b); i++){
+                for(int u: liveness.uses(i)){
+                    extend(start, end, u, 2*i);
+                }
+                if(liveness.def(i) != -1){
+                    extend(start, end, liveness.def(i), 2*i + 1);
+                }
+            }
+        }
+
+        //registers live across each call; only blocks with a call are walked
+        Map<Instruction, int[]> liveAcrossCall = new LinkedHashMap<>();
+        boolean[] crossesCall = new boolean[n];
+        List<Instruction> instructions = cfg.instructions();
+        for(int b=0; b!=cfg.blockCount(); b++){
+            boolean hasCall = false;
+            for(int i=cfg.blockStart(b); i!=cfg.blockEnd(b) && !hasCall; i++){
+                hasCall = ControlFlowGraph.isCall(instructions.get(i));
+            }
+            if(!hasCall)continue;
+
+            liveness.walkBackwards(b, (index, instruction, liveIn, liveOut) -> {
+                if(!ControlFlowGraph.isCall(instruction))return;
+                int[] live = new int[n];
+                int count = 0;
+                for(int reg = Liveness.nextSet(liveOut, 0); reg != -1; reg = Liveness.nextSet(liveOut, reg+1)){
+                    live[count++] = reg;
+                    crossesCall[reg] = true;
+                }
+                liveAcrossCall.put(instruction, Arrays.copyOf(live, count));
+            });
+        }
+
+        //intervals by increasing start: counting sort over positions
+        int positions = 2*instructions.size() + 1;
+        int[] firstAt = new int[positions + 1];
+        for(int reg=0; reg!=n; reg++){
+            firstAt[start[reg] + 1]++;
+        }
+        for(int p=0; p!=positions; p++){
+            firstAt[p+1] += firstAt[p];
+        }
+        int[] order = new int[n];
+        for(int reg=0; reg!=n; reg++){
+            order[firstAt[start[reg]]++] = reg;
+        }
+
+        int[] colours = new int[n];
+        Arrays.fill(colours, -1);
+
+        //active intervals, sorted by increasing end; never more than k of them
+        int[] active = new int[k];
+        int activeCount = 0;
+        boolean[] inUse = new boolean[k];
+
+        for(int reg: order){
+            //expire intervals that ended before this one starts
+            int expired = 0;
+            while(expired != activeCount && end[active[expired]] < start[reg]){
+                inUse[colours[active[expired]]] = false;
+                expired++;
+            }
+            System.arraycopy(active, expired, active, 0, activeCount - expired);
+            activeCount -= expired;
+
+            if(activeCount == k){
+                //spill whichever ends last, this interval or the last active one
+                int last = active[activeCount - 1];
+                if(end[last] > end[reg]){
+                    colours[reg] = colours[last];
+                    colours[last] = -1;
+                    activeCount--;
+                }else{
+                    continue;
+                }
+            }else{
+                colours[reg] = LivenessGraph.pickColour(inUse, crossesCall[reg]);
+                inUse[colours[reg]] = true;
+            }
+
+            int at = activeCount;
+            while(at != 0 && end[active[at-1]] > end[reg]){
+                active[at] = active[at-1];
+                at--;
+            }
+            active[at] = reg;
+            activeCount++;
+        }
+
+        Register[] registers = new Register[n];
+        int[] representative = new int[n];
+        for(int reg=0; reg!=n; reg++){
+            registers[reg] = liveness.register(reg);
+            representative[reg] = reg;
+        }
+        return LivenessGraph.registerMap(section, registers, colours, representative, availableRegisters, liveAcrossCall);
+    }
+
+    private static void extend(int[] start, int[] end, int reg, int position){
+        start[reg] = Math.min(start[reg], position);
+        end[reg] = Math.max(end[reg], position);
+    }
+}
@@ -0,0 +1,252 @@
+package regalloc;
+
+import gen.asm.*;
+import gen.asm.AssemblyItem.*;
+import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Liveness of virtual registers over the basic blocks of a ControlFlowGraph.
+ *
+ * Virtual registers are numbered densely per section, so every live set is a long[] bitset
+ * indexed by register number. The dataflow equations are solved once per block with a
+ * worklist; per-instruction sets are only rebuilt on demand by walking a block backwards.
+ */
+public class Liveness{
+
+    //dense numbering of the virtual registers of the section
+    private final List<Register> registers;
+    private final Map<Register, Integer> numbering;
+
+    //per instruction, by position in the section
+    private final int[][] uses;
+    private final int[] defs;
+
+    //per block
+    private final long[][] liveIn;
+    private final long[][] liveOut;
+
+    private final ControlFlowGraph cfg;
+
+    private Liveness(ControlFlowGraph cfg){
+        this.cfg = cfg;
+        this.registers = new ArrayList<>();
+        this.numbering = new HashMap<>();
+
+        List<Instruction> instructions = cfg.instructions();
+        this.uses = new int[instructions.size()][];
+        this.defs = new int[instructions.size()];
+
+        for(int i=0; i!=instructions.size(); i++){
+            Instruction instruction = instructions.get(i);
+
+            List<Register> used = instruction.uses();
+            int[] u = new int[used.size()];
+            int count = 0;
+            for(Register reg: used){
+                if(reg.isVirtual()){
+                    u[count++] = number(reg);
+                }
+            }
+            uses[i] = count == u.length ? u : Arrays.copyOf(u, count);
+
+            Register def = instruction.def();
+            defs[i] = def != null && def.isVirtual() ? number(def) : -1;
+        }
+
+        int blocks = cfg.blockCount();
+        int words = words(registers.size());
+        this.liveIn = new long[blocks][words];
+        this.liveOut = new long[blocks][words];
+    }
+
+    private int number(Register reg){
+        Integer n = numbering.get(reg);
+        if(n == null){
+            n = registers.size();
+            registers.add(reg);
+            numbering.put(reg, n);
+        }
+        return n;
+    }
+
+    public static Liveness analyse(ControlFlowGraph cfg){
+        Liveness liveness = new Liveness(cfg);
+        liveness.solve();
+        return liveness;
+    }
+
+    //Do liveness analysis on the blocks of the CFG
+    private void solve(){
+        int blocks = cfg.blockCount();
+        int words = words(registers.size());
+
+        //gen = registers used before being defined in the block, kill = registers defined in the block
+        long[][] gen = new long[blocks][words];
+        long[][] kill = new long[blocks][words];
+        for(int b=0; b!=blocks; b++){
+            for(int i=cfg.blockEnd(b)-1; i>=cfg.blockStart(b); i--){
+                if(defs[i] != -1){
+                    set(kill[b], defs[i]);
+                    clear(gen[b], defs[i]);
+                }
+                for(int u: uses[i]){
+                    set(gen[b], u);
+                }
+            }
+            System.arraycopy(gen[b], 0, liveIn[b], 0, words);
+        }
+
+        //liveness flows backwards, so blocks are queued in postorder:
+        //that is reverse postorder of the reversed graph, and successors are mostly done first
+        int[] order = cfg.postorder();
+        int[] queue = new int[blocks + 1];
+        boolean[] queued = new boolean[blocks];
+        int head = 0;
+        int tail = 0;
+        for(int b: order){
+            queue[tail++] = b;
+            queued[b] = true;
+        }
+
+        while(head != tail){
+            int b = queue[head];
+            head = (head + 1) % queue.length;
+            queued[b] = false;
+
+            //liveOut = union of succ liveIn
+            long[] out = liveOut[b];
+            for(int succ: cfg.successors(b)){
+                or(out, liveIn[succ]);
+            }
+
+            //liveIn = gen union (out - kill)
+            boolean changed = false;
+            long[] in = liveIn[b];
+            for(int w=0; w!=words; w++){
+                long updated = gen[b][w] | (out[w] & ~kill[b][w]);
+                if(updated != in[w]){
+                    in[w] = updated;
+                    changed = true;
+                }
+            }
+
+            if(changed){
+                for(int pred: cfg.predecessors(b)){
+                    if(!queued[pred]){
+                        queued[pred] = true;
+                        queue[tail] = pred;
+                        tail = (tail + 1) % queue.length;
+                    }
+                }
+            }
+        }
+    }
+
+    public interface InstructionVisitor{
+        /**
+         * index is the position of the instruction in the section;
+         * liveIn and liveOut are only valid for the duration of the call
+         */
+        public void visit(int index, Instruction instruction, long[] liveIn, long[] liveOut);
+    }
+
+    /**
+     * Visits the instructions of a block last to first, with the live sets around each one.
+     */
+    public void walkBackwards(int block, InstructionVisitor visitor){
+        List<Instruction> instructions = cfg.instructions();
+        long[] out = liveOut[block].clone();
+        long[] in = new long[out.length];
+
+        for(int i=cfg.blockEnd(block)-1; i>=cfg.blockStart(block); i--){
+            System.arraycopy(out, 0, in, 0, in.length);
+            if(defs[i] != -1){
+                clear(in, defs[i]);
+            }
+            for(int u: uses[i]){
+                set(in, u);
+            }
+
+            visitor.visit(i, instructions.get(i), in, out);
+
+            long[] temp = out;
+            out = in;
+            in = temp;
+        }
+    }
+
+    //number of the virtual register defined by the instruction at this index, or -1
+    public int def(int index){
+        return defs[index];
+    }
+
+    //numbers of the virtual registers used by the instruction at this index
+    public int[] uses(int index){
+        return uses[index];
+    }
+
+    //number of a virtual register of the section, or -1
+    public int numberOf(Register reg){
+        Integer n = numbering.get(reg);
+        return n == null ? -1 : n;
+    }
+
+    public int registerCount(){
+        return registers.size();
+    }
+
+    public Register register(int n){
+        return registers.get(n);
+    }
+
+    public long[] liveIn(int block){
+        return liveIn[block];
+    }
+
+    public long[] liveOut(int block){
+        return liveOut[block];
+    }
+
+    //bitset helpers
+
+    static int words(int bits){
+        return (bits + 63) >>> 6;
+    }
+
+    static void set(long[] bits, int i){
+        bits[i >>> 6] |= 1L << i;
+    }
+
+    static void clear(long[] bits, int i){
+        bits[i >>> 6] &= ~(1L << i);
+    }
+
+    static boolean get(long[] bits, int i){
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    static void or(long[] into, long[] from){
+        for(int w=0; w!=into.length; w++){
+            into[w] |= from[w];
+        }
+    }
+
+    //index of the first set bit at or after i, or -1
+    static int nextSet(long[] bits, int i){
+        int w = i >>> 6;
+        if(w >= bits.length)return -1;
+        long word = bits[w] & (-1L << i);
+        while(true){
+            if(word != 0){
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+            w++;
+            if(w == bits.length)return -1;
+            word = bits[w];
+        }
+    }
+}
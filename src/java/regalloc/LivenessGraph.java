@@ -8,50 +8,230 @@ import java.util.List;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Stack;
 import java.util.Collections;
-
+import java.util.Arrays;
+
+/**
+ * Interference graph of the virtual registers of a section.
+ *
+ * Registers are the dense numbers given by Liveness. Membership is a triangular bit-matrix,
+ * and each register also keeps a compact int[] of its neighbours for iteration.
+ */
 public class LivenessGraph{
-    public static class Node{
-        public Node(Register register){
-            this.register = register;
-            this.edges = new ArrayList<>();
+
+    private final Register[] registers;
+
+    //bit (i*(i-1))/2 + j is set when i and j interfere, for i > j
+    private final long[] matrix;
+
+    private final int[][] adjacency;
+    private final int[] degree;
+
+    //register to register copies, as (destination, source) pairs
+    private int[] moves = new int[8];
+    private int moveCount = 0;
+
+    //uses and defs of each register, weighted by 10^loop depth
+    private final double[] weight;
+
+    //registers live across each jal, and the calls each register is live across, weighted like uses
+    private final Map<Instruction, int[]> liveAcrossCall = new LinkedHashMap<>();
+    private final double[] callWeight;
+
+    public LivenessGraph(Register[] registers){
+        this.registers = registers;
+        int n = registers.length;
+        this.matrix = new long[(int)(((long)n*(n-1)/2 + 63) >>> 6)];
+        this.adjacency = new int[n][];
+        this.degree = new int[n];
+        this.weight = new double[n];
+        this.callWeight = new double[n];
+        for(int i=0; i!=n; i++){
+            adjacency[i] = new int[4];
         }
+    }
 
-        public final Register register;
-        public ArrayList<Node> edges;
+    /**
+     * @return the source of a register to register copy (addi x,y,0 or add x,$zero,y), or null
+     */
+    public static Register moveSource(Instruction in){
+        if(in instanceof IInstruction){
+            IInstruction i = (IInstruction) in;
+            if(i.opcode.equals("addi") && i.imm == 0){
+                return i.src;
+            }
+        }
+        if(in instanceof RInstruction){
+            RInstruction r = (RInstruction) in;
+            if(r.opcode.equals("add") || r.opcode.equals("addu")){
+                if(r.src1 == Register.Arch.zero)return r.src2;
+                if(r.src2 == Register.Arch.zero)return r.src1;
+            }
+        }
+        return null;
+    }
 
-        public String dotHeader(){
-            return register.toString() +" [label=\""+register.toString()+"\"];\n";
+    /**
+     * Builds the graph from liveness with the usual construction: at every instruction, the register
+     * it defines interferes with everything live after it. The source of a copy is left out, so the
+     * two ends of a move can share a register.
+     */
+    public static LivenessGraph build(ControlFlowGraph cfg, Liveness liveness){
+        Register[] registers = new Register[liveness.registerCount()];
+        for(int i=0; i!=registers.length; i++){
+            registers[i] = liveness.register(i);
         }
+        LivenessGraph lg = new LivenessGraph(registers);
 
-        public String dotEdges(){
-            String ret = "";
-            for(Node node: edges){
-                ret += register.toString() + " -- " + node.register.toString() + ";\n";
+        for(int b=0; b!=cfg.blockCount(); b++){
+            double blockWeight = Math.pow(10, cfg.loopDepth(b));
+            for(int i=cfg.blockStart(b); i!=cfg.blockEnd(b); i++){
+                if(liveness.def(i) != -1){
+                    lg.weight[liveness.def(i)] += blockWeight;
+                }
+                for(int u: liveness.uses(i)){
+                    lg.weight[u] += blockWeight;
+                }
             }
-            return ret;
+
+            liveness.walkBackwards(b, (index, instruction, liveIn, liveOut) -> {
+                if(ControlFlowGraph.isCall(instruction)){
+                    lg.addCall(instruction, liveOut, blockWeight);
+                }
+
+                int def = liveness.def(index);
+                if(def == -1)return;
+
+                int src = -1;
+                Register moveSrc = moveSource(instruction);
+                if(moveSrc != null && moveSrc.isVirtual()){
+                    src = liveness.numberOf(moveSrc);
+                    lg.addMove(def, src);
+                }
+
+                for(int reg = Liveness.nextSet(liveOut, 0); reg != -1; reg = Liveness.nextSet(liveOut, reg+1)){
+                    if(reg != src){
+                        lg.addEdge(def, reg);
+                    }
+                }
+            });
         }
+
+        //System.out.println(lg.toDot());
+        return lg;
     }
 
-    public String toDot(){
-        String ret="graph liveness{\n";
-        for(Node node: nodes){
-            ret += node.dotHeader();
+    private static long bit(int i, int j){
+        if(i < j){
+            int t = i;
+            i = j;
+            j = t;
+        }
+        return (long)i*(i-1)/2 + j;
+    }
+
+    public boolean interferes(int i, int j){
+        if(i == j)return false;
+        long b = bit(i, j);
+        return (matrix[(int)(b >>> 6)] & (1L << b)) != 0;
+    }
+
+    public void addEdge(int i, int j){
+        if(i == j)return;
+        long b = bit(i, j);
+        int w = (int)(b >>> 6);
+        if((matrix[w] & (1L << b)) != 0)return;
+        matrix[w] |= 1L << b;
+        addNeighbour(i, j);
+        addNeighbour(j, i);
+    }
+
+    private void addNeighbour(int i, int j){
+        if(degree[i] == adjacency[i].length){
+            adjacency[i] = Arrays.copyOf(adjacency[i], degree[i]*2);
         }
-        ret +="\n";
-        for(Node node: nodes){
-            ret += node.dotEdges();
+        adjacency[i][degree[i]++] = j;
+    }
+
+    private void addCall(Instruction call, long[] liveOut, double blockWeight){
+        int[] live = new int[registers.length];
+        int count = 0;
+        for(int reg = Liveness.nextSet(liveOut, 0); reg != -1; reg = Liveness.nextSet(liveOut, reg+1)){
+            live[count++] = reg;
+            callWeight[reg] += blockWeight;
+        }
+        liveAcrossCall.put(call, Arrays.copyOf(live, count));
+    }
+
+    private void addMove(int dst, int src){
+        if(dst == src)return;
+        if(moveCount*2 == moves.length){
+            moves = Arrays.copyOf(moves, moves.length*2);
         }
+        moves[moveCount*2] = dst;
+        moves[moveCount*2+1] = src;
+        moveCount++;
+    }
+
+    public int moveCount(){
+        return moveCount;
+    }
+
+    public int moveDestination(int move){
+        return moves[move*2];
+    }
+
+    public int moveSource(int move){
+        return moves[move*2+1];
+    }
+
+    /**
+     * Number of uses and defs of the register, each weighted by 10^depth of the loops around it.
+     */
+    public double weight(int i){
+        return weight[i];
+    }
+
+    public boolean crossesCall(int i){
+        return callWeight[i] != 0;
+    }
+
+    public int size(){
+        return registers.length;
+    }
 
-        ret +="}";
-        return ret;
+    public Register register(int i){
+        return registers[i];
     }
 
-    private final List<Node> nodes;
+    public int degree(int i){
+        return degree[i];
+    }
 
-    public LivenessGraph(List<Node> nodes){
-        this.nodes = nodes;
+    //only the first degree(i) entries are neighbours
+    public int[] neighbours(int i){
+        return adjacency[i];
+    }
+
+    public String toDot(){
+        StringBuilder ret = new StringBuilder("graph liveness{\n");
+        for(Register reg: registers){
+            ret.append(reg).append(" [label=\"").append(reg).append("\"];\n");
+        }
+        ret.append("\n");
+        for(int i=0; i!=registers.length; i++){
+            for(int e=0; e!=degree[i]; e++){
+                int j = adjacency[i][e];
+                if(j < i){
+                    ret.append(registers[i]).append(" -- ").append(registers[j]).append(";\n");
+                }
+            }
+        }
+
+        ret.append("}");
+        return ret.toString();
     }
 
     public static class RegisterMap{
@@ -62,57 +242,49 @@ public class LivenessGraph{
         //hardware registers to spill into
         private final List<Register> spill;
 
-        //labels to map spilled registers to
-        private final Map<Register, Label> spilledLabels;
+        //$fp offsets of the frame slots spilled registers live in
+        private final Map<Register, Integer> spillSlots;
+
+        //section being allocated; its frame size includes the spill slots
+        private final AssemblyProgram.Section section;
 
+        //caller-saved registers to keep around each call, and the $fp offsets they are kept at
+        private final Map<Instruction, List<Register>> callerSaves;
+        private final Map<Register, Integer> saveSlots;
+
+        //callee-saved registers the function uses, saved by its prologue
         private final List<Register> toBeSaved;
-        private final ArrayList<Label> labelRegisters;
 
         
 
-        public RegisterMap( Map<Register, Register> registerAllocation, 
+        public RegisterMap( AssemblyProgram.Section section,
+                            Map<Register, Register> registerAllocation, 
                             List<Register> spill,
-                            Map<Register, Label> spilledLabels){
+                            Map<Register, Integer> spillSlots,
+                            Map<Instruction, List<Register>> callerSaves,
+                            Map<Register, Integer> saveSlots){
+            this.section = section;
             this.registerAllocation = registerAllocation;
             this.spill = spill;
-            this.spilledLabels = spilledLabels;
+            this.spillSlots = spillSlots;
+            this.callerSaves = callerSaves;
+            this.saveSlots = saveSlots;
 
             this.toBeSaved = new ArrayList<>();
-            this.labelRegisters = new ArrayList<>(spilledLabels.values());
 
-            toBeSaved.addAll(this.spill);
+            //the spill registers never hold a value past the instruction they were loaded for,
+            //so callers don't need them back
             for(Register reg: this.registerAllocation.values()){
-                if(!toBeSaved.contains(reg))
+                if(((Register.Arch) reg).isCalleeSaved() && !toBeSaved.contains(reg))
                     toBeSaved.add(reg);
             }
 
 
         }
 
-        public AssemblyProgram.Section generateDataSection(){
-            AssemblyProgram.Section ret = new AssemblyProgram.Section(AssemblyProgram.Section.Type.DATA);
-            for(Label label: spilledLabels.values()){
-                ret.emit(label);
-                ret.emit(new AssemblyItem.Directive.Space(4));
-            }
-
-            return ret;
-        }
-
         public List<Instruction> genPushRegisters(){
             List<Instruction> ret = new LinkedList<>();
 
-            Register tempRegister = spill.get(0);
-            for(Label label: labelRegisters){
-                // load content of memory at label into register
-                ret.add(new LA(tempRegister, label));
-                ret.add(new Load("lw", tempRegister, tempRegister, 0));
-
-                // push register onto stack
-                ret.add(new IInstruction("addi", Register.Arch.sp, Register.Arch.sp, -4));
-                ret.add(new Store("sw", tempRegister, Register.Arch.sp, 0));
-            }
-
             for(Register reg: toBeSaved){
                 // push register onto stack
                 ret.add(new IInstruction("addi", Register.Arch.sp, Register.Arch.sp, -4));
@@ -133,22 +305,6 @@ public class LivenessGraph{
             }
             
             Collections.reverse(toBeSaved);
-
-            Collections.reverse(labelRegisters);
-
-            Register temp1 = spill.get(0);
-            Register temp2 = spill.get(1);
-
-            for(Label label: labelRegisters){
-                // pop from stack into $t0
-                ret.add(new Load("lw", temp1, Register.Arch.sp, 0));
-                ret.add(new IInstruction("addi", Register.Arch.sp, Register.Arch.sp, 4));
-
-                // store content of $t0 in memory at label
-                ret.add(new LA(temp2, label));
-                ret.add(new Store("sw", temp1, temp2, 0));
-            }
-            Collections.reverse(labelRegisters);
             return ret;
         }
 
@@ -165,6 +321,33 @@ public class LivenessGraph{
             List<Instruction> pre = new LinkedList<>();
             List<Instruction> post = new LinkedList<>();
 
+            //caller-saved registers live across a call are kept in the frame while it runs
+            List<Register> saved = callerSaves.get(in);
+            if(saved != null){
+                for(Register reg: saved){
+                    pre.add(new Store("sw", reg, Register.Arch.fp, saveSlots.get(reg)));
+                    post.add(new Load("lw", reg, Register.Arch.fp, saveSlots.get(reg)));
+                }
+            }
+
+            if(in.equals(AssemblyItem.Instruction.allocateFrame)){
+                //locals and spill slots are all below $fp
+                pre.add(new IInstruction("addi", Register.Arch.sp, Register.Arch.fp, -section.frameSize));
+                return pre;
+            }
+
+            if(in.equals(AssemblyItem.Instruction.freeFrame)){
+                //back to $sp on entry, just above the saved $fp
+                pre.add(new IInstruction("addi", Register.Arch.sp, Register.Arch.fp, 4));
+                return pre;
+            }
+
+            //copy between two registers spilled to the same place
+            Register moveSrc = moveSource(in);
+            if(moveSrc != null && spillSlots.containsKey(moveSrc) && spillSlots.get(moveSrc).equals(spillSlots.get(in.def()))){
+                return pre;
+            }
+
             Map<Register, Register> instructionRegMap = new HashMap<>();
 
             int spillIndex = 0;
@@ -176,11 +359,8 @@ public class LivenessGraph{
                 if(out==null){
                     Register spillRegister = spill.get(spillIndex);
                     spillIndex++;
-                    Register addrRegister = spill.get(spillIndex); //can overlap with others; it doesn't matter
                     //spilled: add store instruction
-                    Label label = spilledLabels.get(def);
-                    post.add(new LA(addrRegister, label));
-                    post.add(new Store("sw", spillRegister,  addrRegister, 0));
+                    post.add(new Store("sw", spillRegister, Register.Arch.fp, spillSlots.get(def)));
                     instructionRegMap.put(def, spillRegister);
 
                 }else{
@@ -194,12 +374,10 @@ public class LivenessGraph{
 
                 Register out = registerAllocation.get(inReg);
                 if(out==null){
-                    Register spillRegister = spill.get(spillIndex);
-                    spillIndex++;
+                    //a register both used and defined is loaded into the temporary its def is stored from
+                    Register spillRegister = inReg.equals(def) ? instructionRegMap.get(def) : spill.get(spillIndex++);
                     //spilled: add load instruction
-                    Label label = spilledLabels.get(inReg);
-                    pre.add(new LA(spillRegister, label));
-                    pre.add(new Load("lw", spillRegister,  spillRegister, 0));
+                    pre.add(new Load("lw", spillRegister, Register.Arch.fp, spillSlots.get(inReg)));
                     instructionRegMap.put(inReg, spillRegister);
 
                 }else{
@@ -208,6 +386,12 @@ public class LivenessGraph{
                 }
             }
 
+            //copy between two registers that ended up in the same place
+            if(moveSrc != null && pre.isEmpty() && post.isEmpty()
+                && instructionRegMap.getOrDefault(def, def) == instructionRegMap.getOrDefault(moveSrc, moveSrc)){
+                return pre;
+            }
+
             Instruction applied = in.rebuild(instructionRegMap);
 
             List<Instruction> ret = pre;
@@ -218,87 +402,215 @@ public class LivenessGraph{
         }
     }
 
-    public RegisterMap generateRegisterMap(ArrayList<Register> availableRegisters){
-
-        
-
-        //Chaitin
-
-        int availableRegistersSize = availableRegisters.size() - 3 ; //18 - 3 for spilling
-
-        Stack<Node> removedNodes = new Stack<Node>();
-        List<Node> spilled = new ArrayList<Node>();
-        Map<Register, Label> spilledLabels = new HashMap<Register, Label>();
+    /**
+     * Chaitin-Briggs simplify and select.
+     *
+     * Nodes sit in buckets by their current degree, which is kept up to date as neighbours are
+     * removed. Simplify removes a node of degree under k while there is one; otherwise the node of
+     * highest degree is removed as a potential spill. Select colours nodes in reverse order of removal,
+     * and a potential spill only really spills if its neighbours used up every colour (optimistic colouring).
+     *
+     * @param spillCost pick potential spills by least weight / degree rather than by highest degree
+     * @return colour of each node, -1 for spilled nodes
+     */
+    public int[] colour(int k, boolean spillCost){
+        int n = registers.length;
+
+        int[] currentDegree = degree.clone();
+        int maxDegree = 0;
+        for(int d: currentDegree){
+            maxDegree = Math.max(maxDegree, d);
+        }
 
-        while(removedNodes.size() + spilled.size() < nodes.size()){
-            Node leastEdges = null;
-            int minEdges = Integer.MAX_VALUE;
+        //doubly linked bucket lists
+        int[] head = new int[maxDegree + 1];
+        int[] next = new int[n];
+        int[] prev = new int[n];
+        Arrays.fill(head, -1);
+        for(int node=0; node!=n; node++){
+            pushBucket(head, next, prev, node, currentDegree[node]);
+        }
 
-            Node mostEdges = null;
-            int maxEdges = 0;
+        int[] removedNodes = new int[n]; //stack
+        int removedCount = 0;
+        boolean[] removed = new boolean[n];
+        int highest = maxDegree;
 
-            for(Node node: nodes){
-                if(removedNodes.search(node) != -1 ||spilled.contains(node))continue;
+        while(removedCount != n){
+            int node = -1;
+            for(int d=0; d<k && d<=maxDegree; d++){
+                if(head[d] != -1){
+                    node = head[d];
+                    break;
+                }
+            }
 
-                int edgeCount = 0;
-                for(Node edge: node.edges){
-                    if(removedNodes.search(edge)== -1 && !spilled.contains(edge)){
-                        edgeCount++;
+            if(node == -1){
+                //potential spill: highest current degree, or cheapest to spill
+                while(head[highest] == -1){
+                    highest--;
+                }
+                node = head[highest];
+                if(spillCost){
+                    double best = Double.POSITIVE_INFINITY;
+                    for(int d=k; d<=highest; d++){
+                        for(int candidate = head[d]; candidate != -1; candidate = next[candidate]){
+                            double cost = weight[candidate] / d;
+                            if(cost < best){
+                                best = cost;
+                                node = candidate;
+                            }
+                        }
                     }
                 }
+            }
 
-                if(edgeCount > maxEdges){
-                    mostEdges = node;
-                    maxEdges = edgeCount;
-                }
+            unlinkBucket(head, next, prev, node, currentDegree[node]);
+            removed[node] = true;
+            removedNodes[removedCount++] = node;
 
-                if(edgeCount < minEdges){
-                    leastEdges = node;
-                    minEdges = edgeCount;
+            for(int e=0; e!=degree[node]; e++){
+                int edge = adjacency[node][e];
+                if(removed[edge])continue;
+                unlinkBucket(head, next, prev, edge, currentDegree[edge]);
+                currentDegree[edge]--;
+                pushBucket(head, next, prev, edge, currentDegree[edge]);
+            }
+        }
+
+        //select
+        int[] colours = new int[n];
+        Arrays.fill(colours, -1);
+        boolean[] taken = new boolean[k];
+        while(removedCount != 0){
+            int node = removedNodes[--removedCount];
+            Arrays.fill(taken, false);
+            for(int e=0; e!=degree[node]; e++){
+                int c = colours[adjacency[node][e]];
+                if(c != -1){
+                    taken[c] = true;
                 }
             }
+            colours[node] = pickColour(taken, crossesCall(node));
+        }
+        return colours;
+    }
 
-            if(minEdges < availableRegistersSize){
-                removedNodes.add(leastEdges);
-            }else{
-                spilled.add(mostEdges);
-                spilledLabels.put(mostEdges.register, new Label(mostEdges.register.toString()));
+    /**
+     * Colours are in the order of the available registers: caller-saved first, callee-saved last.
+     * A register live across a call takes the last free colour, so it is saved once by the prologue
+     * rather than around every call; any other register takes the first.
+     *
+     * @return a colour not taken, or -1
+     */
+    static int pickColour(boolean[] taken, boolean crossesCall){
+        int k = taken.length;
+        for(int i=0; i!=k; i++){
+            int c = crossesCall ? k-1-i : i;
+            if(!taken[c]){
+                return c;
             }
+        }
+        return -1;
+    }
 
+    private static void pushBucket(int[] head, int[] next, int[] prev, int node, int bucket){
+        prev[node] = -1;
+        next[node] = head[bucket];
+        if(head[bucket] != -1){
+            prev[head[bucket]] = node;
         }
+        head[bucket] = node;
+    }
 
-        //all virtual registers have been removed
-
-        Map<Register, Register> registerAllocation = new HashMap<>();
-
-        while(!removedNodes.empty()){
-            //get a node
-            Node node = removedNodes.pop();
-            //find a register for it
-            for(Register reg: availableRegisters){
-                boolean good = true;
-                for(Node edge: node.edges){
-                    if(removedNodes.search(edge) != -1 || spilled.contains(edge)) continue;
-                    Register edgeReg = registerAllocation.get(edge.register);
-                    if(edgeReg.equals(reg)){
-                        good = false;
-                        break;
-                    }
-                }
+    private static void unlinkBucket(int[] head, int[] next, int[] prev, int node, int bucket){
+        if(prev[node] != -1){
+            next[prev[node]] = next[node];
+        }else{
+            head[bucket] = next[node];
+        }
+        if(next[node] != -1){
+            prev[next[node]] = prev[node];
+        }
+    }
 
-                if(good){
-                    registerAllocation.put(node.register, reg);
-                    break;
+    public RegisterMap generateRegisterMap(AssemblyProgram.Section section, ArrayList<Register> availableRegisters){
+        return generateRegisterMap(section, availableRegisters, false, false);
+    }
+
+    /**
+     * Spilled registers get a word each at the bottom of the section's stack frame.
+     *
+     * @param coalesce use iterated register coalescing instead of plain simplify and select
+     * @param spillCost choose spills by weighted use count over degree instead of by degree alone
+     */
+    public RegisterMap generateRegisterMap(AssemblyProgram.Section section, ArrayList<Register> availableRegisters, boolean coalesce, boolean spillCost){
+        int availableRegistersSize = availableRegisters.size() - 3 ; //18 - 3 for spilling
+
+        IteratedCoalescing coalescing = coalesce ? new IteratedCoalescing(this, availableRegistersSize, spillCost) : null;
+        int[] colours = coalesce ? coalescing.colour() : colour(availableRegistersSize, spillCost);
+
+        int[] representative = new int[registers.length];
+        for(int node=0; node!=registers.length; node++){
+            //a caller-saved register costs a store and a load around every call it is live across;
+            //when that is more than a load per use and a store per def, the value is better off spilled
+            if(colours[node] != -1 && !((Register.Arch) availableRegisters.get(colours[node])).isCalleeSaved()
+                && 2*callWeight[node] > weight[node]){
+                colours[node] = -1;
+            }
+            representative[node] = coalesce ? coalescing.alias(node) : node;
+        }
+
+        return registerMap(section, registers, colours, representative, availableRegisters, liveAcrossCall);
+    }
+
+    /**
+     * Register map for the colours given to a section's registers by any allocator.
+     * Spilled registers get a word each at the bottom of the section's stack frame, shared by registers
+     * with the same representative, and caller-saved registers live across a call get a word to be kept in.
+     *
+     * @param colours index into availableRegisters of each register, -1 if spilled; the last 3 registers
+     *                are kept for spill code
+     * @param liveAcrossCall numbers of the registers live across each jal of the section
+     */
+    static RegisterMap registerMap(AssemblyProgram.Section section, Register[] registers, int[] colours, int[] representative,
+                                   List<Register> availableRegisters, Map<Instruction, int[]> liveAcrossCall){
+        int availableRegistersSize = availableRegisters.size() - 3;
+
+        //in numbering order, so the registers saved by the prologue come out the same every time
+        Map<Register, Register> registerAllocation = new LinkedHashMap<>();
+        Map<Register, Integer> spillSlots = new HashMap<>();
+        for(int node=0; node!=registers.length; node++){
+            if(colours[node] == -1){
+                Register rep = registers[representative[node]];
+                int slot = spillSlots.computeIfAbsent(rep, reg -> section.allocateFrameWord());
+                spillSlots.put(registers[node], slot);
+            }else{
+                registerAllocation.put(registers[node], availableRegisters.get(colours[node]));
+            }
+        }
+
+        //caller-saved registers holding a value live across a call get a frame slot to be kept in
+        Map<Instruction, List<Register>> callerSaves = new HashMap<>();
+        Map<Register, Integer> saveSlots = new HashMap<>();
+        for(Map.Entry<Instruction, int[]> call: liveAcrossCall.entrySet()){
+            List<Register> saved = new ArrayList<>();
+            for(int node: call.getValue()){
+                Register reg = registerAllocation.get(registers[node]);
+                if(reg != null && !((Register.Arch) reg).isCalleeSaved() && !saved.contains(reg)){
+                    saved.add(reg);
+                    saveSlots.computeIfAbsent(reg, r -> section.allocateFrameWord());
                 }
             }
+            callerSaves.put(call.getKey(), saved);
         }
 
         /*for(Map.Entry alloc: registerAllocation.entrySet()){
             System.out.println(alloc.getKey().toString()+"->"+alloc.getValue().toString());
         }*/
 
-        return new RegisterMap(registerAllocation, 
+        return new RegisterMap(section, registerAllocation, 
             availableRegisters.subList(availableRegistersSize, availableRegistersSize+3),
-            spilledLabels);
+            spillSlots, callerSaves, saveSlots);
     }
-}
\ No newline at end of file
+}
@@ -140,6 +140,12 @@ public class NaiveRegAlloc {
                                         newSection.emitLA(Register.Arch.t1, l);
                                         newSection.emitStore("sw", Register.Arch.t0, Register.Arch.t1, 0);
                                     }
+                                } else if (insn == AssemblyItem.Instruction.allocateFrame) {
+                                    newSection.emit("Original instruction: allocateFrame");
+                                    newSection.emit("addi", Register.Arch.sp, Register.Arch.fp, -section.frameSize);
+                                } else if (insn == AssemblyItem.Instruction.freeFrame) {
+                                    newSection.emit("Original instruction: freeFrame");
+                                    newSection.emit("addi", Register.Arch.sp, Register.Arch.fp, 4);
                                 }else
                                     emitInstructionWithoutVirtualRegister(insn, vrMap, newSection);
                             }
@@ -8,6 +8,7 @@ package sem;
  */
 public abstract class BaseSemanticVisitor<T> implements SemanticVisitor<T> {
 	private int errors;
+	private StringBuilder report;
 	
 	
 	public BaseSemanticVisitor() {
@@ -17,9 +18,20 @@ public abstract class BaseSemanticVisitor<T> implements SemanticVisitor<T> {
 	public int getErrorCount() {
 		return errors;
 	}
+
+	/**
+	 * Has the messages of the errors found from now on added to report rather than printed,
+	 * until given null.
+	 */
+	void reportTo(StringBuilder report) {
+		this.report = report;
+	}
 	
 	protected void error(String message) {
-		System.err.println("semantic error: " + message);
+		if (report != null)
+			report.append("semantic error: ").append(message).append(System.lineSeparator());
+		else
+			System.err.println("semantic error: " + message);
 		errors++;
 	}
 }
@@ -0,0 +1,74 @@
+package sem;
+
+import ast.*;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Gives each node it visits to each of its visitors in turn, in the order they were given, so a
+ * function accepted by it goes through every visitor before the next function is looked at, while it
+ * is still in cache.
+ *
+ * Each visitor still goes through the node's children itself, as what it finds about them (scopes,
+ * the function being checked, the types of subexpressions) is kept on its own stack as it goes.
+ */
+class CombinedSemanticVisitor implements SemanticVisitor<Void> {
+
+	private final List<BaseSemanticVisitor<?>> visitors;
+
+	CombinedSemanticVisitor(BaseSemanticVisitor<?>... visitors) {
+		this.visitors = Arrays.asList(visitors);
+	}
+
+	/**
+	 * @return the errors found by all the visitors
+	 */
+	public int getErrorCount() {
+		int errors = 0;
+		for (BaseSemanticVisitor<?> v : visitors)
+			errors += v.getErrorCount();
+		return errors;
+	}
+
+	/**
+	 * Has the messages of the errors any of the visitors find from now on added to report, as
+	 * BaseSemanticVisitor.reportTo does.
+	 */
+	void reportTo(StringBuilder report) {
+		for (BaseSemanticVisitor<?> v : visitors)
+			v.reportTo(report);
+	}
+
+	private Void all(ASTNode node) {
+		for (BaseSemanticVisitor<?> v : visitors)
+			node.accept(v);
+		return null;
+	}
+
+	public Void visitBaseType(BaseType bt) { return all(bt); }
+	public Void visitStructTypeDecl(StructTypeDecl st) { return all(st); }
+	public Void visitBlock(Block b) { return all(b); }
+	public Void visitFunDecl(FunDecl p) { return all(p); }
+	public Void visitProgram(Program p) { return all(p); }
+	public Void visitVarDecl(VarDecl vd) { return all(vd); }
+	public Void visitVarExpr(VarExpr v) { return all(v); }
+	public Void visitStructType(StructType st) { return all(st); }
+	public Void visitArrayType(ArrayType at) { return all(at); }
+	public Void visitPointerType(PointerType pt) { return all(pt); }
+	public Void visitAssign(Assign e) { return all(e); }
+	public Void visitAddressOfExpr(AddressOfExpr e) { return all(e); }
+	public Void visitArrayAccessExpr(ArrayAccessExpr e) { return all(e); }
+	public Void visitBinOp(BinOp bop) { return all(bop); }
+	public Void visitChrLiteral(ChrLiteral cl) { return all(cl); }
+	public Void visitIntLiteral(IntLiteral il) { return all(il); }
+	public Void visitStrLiteral(StrLiteral sl) { return all(sl); }
+	public Void visitExprStmt(ExprStmt es) { return all(es); }
+	public Void visitFieldAccessExpr(FieldAccessExpr e) { return all(e); }
+	public Void visitFunCallExpr(FunCallExpr e) { return all(e); }
+	public Void visitIf(If ifs) { return all(ifs); }
+	public Void visitReturn(Return rets) { return all(rets); }
+	public Void visitSizeOfExpr(SizeOfExpr e) { return all(e); }
+	public Void visitTypecastExpr(TypecastExpr e) { return all(e); }
+	public Void visitValueAtExpr(ValueAtExpr e) { return all(e); }
+	public Void visitWhile(While ws) { return all(ws); }
+}
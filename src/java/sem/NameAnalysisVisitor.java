@@ -4,11 +4,9 @@ import ast.*;
 
 public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 
-    Scope scope;
-
-    public NameAnalysisVisitor(Scope scope){
-        this.scope = scope;
-    }
+    SymbolTable symbols = new SymbolTable();
+    // while the fields of a struct are declared, the scope they go in
+    Scope fields;
 
 	@Override
 	public Void visitBaseType(BaseType bt) {
@@ -17,23 +15,23 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 
 	@Override
 	public Void visitStructTypeDecl(StructTypeDecl sts) {
-		Scope oldScope = scope;
-        scope = new Scope(null);
+        fields = new Scope(null);
 
         for(VarDecl i: sts.fields){
             i.accept(this);
         }
         
-        sts.scope = scope; //associate struct with scope
-        scope = oldScope;
+        sts.scope = fields; //associate struct with scope
+        fields = null;
 
 		return null;
 	}
 
 	@Override
 	public Void visitBlock(Block b) {
-		Scope oldScope = scope;
-        scope = new Scope(scope);
+        //a block declaring nothing has nothing to take out again
+        boolean declares = !b.vars.isEmpty();
+        if(declares)symbols.enterScope();
 
         for(VarDecl vd: b.vars){
             vd.accept(this);
@@ -43,19 +41,18 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
             stmt.accept(this);
         }
 
-        scope = oldScope;
+        if(declares)symbols.exitScope();
 		return null;
 	}
 
 	@Override
 	public Void visitFunDecl(FunDecl p) {
-		if(scope.lookupCurrent(p.name)==null){
-          scope.put(new FunSymbol(p));
+		if(symbols.lookupCurrent(p.name)==null){
+          symbols.put(new FunSymbol(p));
         }else{
             error("Symbol "+p.name+" already declared in this scope");
         }
-        Scope oldScope = scope;
-        scope = new Scope(scope);
+        symbols.enterScope();
         for(VarDecl vd: p.params){
             vd.accept(this);
         }
@@ -69,7 +66,7 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
         for(Stmt stmt: b.statements){
             stmt.accept(this);
         }
-        scope = oldScope;
+        symbols.exitScope();
 		return null;
 	}
 
@@ -92,8 +89,14 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 
 	@Override
 	public Void visitVarDecl(VarDecl vd) {
-        if(scope.lookupCurrent(vd.varName)==null){
-		  scope.put(new VarSymbol(vd));
+        if(fields != null){
+            if(fields.lookupCurrent(vd.varName)==null){
+                fields.put(new VarSymbol(vd));
+            }else{
+                error("Symbol "+vd.varName+" already declared in this scope");
+            }
+        }else if(symbols.lookupCurrent(vd.varName)==null){
+		  symbols.put(new VarSymbol(vd));
         }else{
              error("Symbol "+vd.varName+" already declared in this scope");
         }
@@ -102,7 +105,7 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 
 	@Override
 	public Void visitVarExpr(VarExpr v) {
-		Symbol symbol = scope.lookup(v.name);
+		Symbol symbol = symbols.lookup(v.name);
         if(symbol == null){
              error("Symbol "+v.name+" not declared in this scope");
         }else{
@@ -191,7 +194,7 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
             arg.accept(this);
         }
 
-    	Symbol symbol = scope.lookup(e.function);
+    	Symbol symbol = symbols.lookup(e.function);
         if(symbol == null){
             error("Symbol "+e.function+" not declared in this scope\n");
         }else{
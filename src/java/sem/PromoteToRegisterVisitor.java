@@ -2,9 +2,26 @@ package sem;
 
 import ast.*;
 import gen.asm.Register;
+import java.util.ArrayList;
+import java.util.List;
 
 public class PromoteToRegisterVisitor extends BaseSemanticVisitor<Void> {
 
+    //found by the visit, but only given their registers by giveRegisters
+    private final List<VarDecl> promoted = new ArrayList<>();
+
+    /**
+     * Puts each variable found since the last call in a register of its own. Registers are numbered as
+     * they are made, so when functions are visited alongside each other, calling this for each in
+     * program order gives the same code every time.
+     */
+    public void giveRegisters(){
+        for(VarDecl vd: promoted){
+            vd.memory = new VarDecl.Memory(new Register.Virtual());
+        }
+        promoted.clear();
+    }
+
     @Override
     public Void visitBaseType(BaseType bt) {
         return null;
@@ -77,7 +94,7 @@ public class PromoteToRegisterVisitor extends BaseSemanticVisitor<Void> {
 
         //TODO:
         if(!(vd.type instanceof StructType || vd.type instanceof ArrayType)){
-            vd.memory = new VarDecl.Memory(new Register.Virtual());
+            promoted.add(vd);
         }
 
         return null;
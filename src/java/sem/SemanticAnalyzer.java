@@ -1,62 +1,105 @@
 package sem;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import ast.BaseType;
+import java.util.List;
+import java.util.stream.IntStream;
 import ast.FunDecl;
-import ast.VarDecl;
-import ast.Block;
-import ast.PointerType;
-import ast.Stmt;
+import ast.Program;
+import gen.Prelude;
 
 public class SemanticAnalyzer {
-	
+
+	// the visitors of the program being analysed one function at a time; their scopes and structs carry over
+	private NameAnalysisVisitor names;
+	private TypeCheckVisitor typeCheck;
+	private PromoteToRegisterVisitor promote;
+	// all of them, each function going through one before the next
+	private CombinedSemanticVisitor streamed;
+
+	/**
+	 * Analyses the program a function at a time, so each function goes through every visitor while
+	 * it is still in cache rather than once per visitor over the whole program. Each visitor sees
+	 * every declaration in the same order as before, so the same errors are found, though reported
+	 * grouped by function.
+	 *
+	 * Name analysis has to go through the functions in order, as it declares each function as it
+	 * goes, so it does that first. After it, each function is type checked, lvalue checked and then
+	 * promoted on its own, against structs and declarations that are no longer changed, so with
+	 * several processors the functions go through those alongside each other. Errors are held for
+	 * each function and printed in order once all are done, and the promoted variables are given
+	 * their registers in order, so the output is the same either way.
+	 */
 	public int analyze(ast.Program prog) {
-		// List of visitors
-		ArrayList<SemanticVisitor> visitors = new ArrayList<SemanticVisitor>() {{
-			add(new NameAnalysisVisitor(new Scope(null)));
-			add(new TypeCheckVisitor());
-			add(new LValueSemanticVisitor());
-			add(new PromoteToRegisterVisitor());
-			// To be completed...
-		}};
-		// Error accumulator
-		int errors = 0;
-
-		Collections.reverse(prog.funDecls);
+		Program header = new Program(prog.structTypeDecls, prog.varDecls, new ArrayList<FunDecl>(), prog.types);
+		int errors = analyzeHeader(header);
 
 		//add builtins
-		VarDecl[] print_sArgs = {new VarDecl(new PointerType(BaseType.CHAR), "s")};
-		prog.funDecls.add(new ast.FunDecl(BaseType.VOID, "print_s", Arrays.asList(print_sArgs), 
-			new Block(new ArrayList<VarDecl>(), new ArrayList<Stmt>())));
-
-		VarDecl[] print_iArgs = {new VarDecl(BaseType.INT, "i")};
-		prog.funDecls.add(new ast.FunDecl(BaseType.VOID, "print_i", Arrays.asList(print_iArgs), 
-			new Block(new ArrayList<VarDecl>(), new ArrayList<Stmt>())));
+		List<FunDecl> funDecls = new ArrayList<FunDecl>(prog.funDecls);
+		prog.funDecls.addAll(0, header.funDecls);
 
-		VarDecl[] print_cArgs = {new VarDecl(BaseType.CHAR, "c")};
-		prog.funDecls.add(new FunDecl(BaseType.VOID, "print_c", Arrays.asList(print_cArgs), 
-			new Block(new ArrayList<VarDecl>(), new ArrayList<Stmt>())));
+		StringBuilder[] reports = new StringBuilder[funDecls.size()];
+		PromoteToRegisterVisitor[] promotions = new PromoteToRegisterVisitor[funDecls.size()];
+		int before = names.getErrorCount();
+		for (int i = 0; i != funDecls.size(); i++) {
+			reports[i] = new StringBuilder();
+			promotions[i] = new PromoteToRegisterVisitor();
+			names.reportTo(reports[i]);
+			funDecls.get(i).accept(names);
+		}
+		names.reportTo(null);
+		errors += names.getErrorCount() - before;
 
-		prog.funDecls.add(new FunDecl(BaseType.CHAR, "read_c", new ArrayList<VarDecl>(), 
-			new Block(new ArrayList<VarDecl>(), new ArrayList<Stmt>())));
-		prog.funDecls.add(new FunDecl(BaseType.INT, "read_i", new ArrayList<VarDecl>(), 
-			new Block(new ArrayList<VarDecl>(), new ArrayList<Stmt>())));
+		IntStream functions = IntStream.range(0, funDecls.size());
+		if (Runtime.getRuntime().availableProcessors() > 1)
+			functions = functions.parallel();
+		errors += functions.map(i -> checkBody(funDecls.get(i), promotions[i], reports[i])).sum();
 
-		VarDecl[] mcmallocArgs = {new VarDecl(BaseType.INT, "size")};
-		prog.funDecls.add(new FunDecl(new PointerType(BaseType.VOID), "mcmalloc", Arrays.asList(mcmallocArgs), 
-			new Block(new ArrayList<VarDecl>(), new ArrayList<Stmt>())));
+		for (PromoteToRegisterVisitor promotion : promotions)
+			promotion.giveRegisters();
 
-		Collections.reverse(prog.funDecls);
-		
-		// Apply each visitor to the AST
-		for (SemanticVisitor v : visitors) {
-			prog.accept(v);
-			errors += v.getErrorCount();
-		}
+		for (StringBuilder report : reports)
+			System.err.print(report);
 		
 		// Return the number of errors.
 		return errors;
 	}
+
+	// the visitors after name analysis, on a function alone, with their errors added to report
+	private int checkBody(FunDecl fd, PromoteToRegisterVisitor promotion, StringBuilder report) {
+		CombinedSemanticVisitor checks = new CombinedSemanticVisitor(
+			new TypeCheckVisitor(typeCheck.structs, typeCheck.types), new LValueSemanticVisitor(), promotion);
+		checks.reportTo(report);
+		fd.accept(checks);
+		return checks.getErrorCount();
+	}
+
+	/**
+	 * Starts analysing a program one function at a time: its structs and globals, which the parser
+	 * gives before any function, and the builtin functions, which are put in its function list.
+	 * Each function is then analysed with analyzeFunDecl, after those it may call.
+	 *
+	 * analyze starts from this too, but then goes through its functions itself.
+	 *
+	 * @return the number of errors
+	 */
+	public int analyzeHeader(Program header) {
+		names = new NameAnalysisVisitor();
+		typeCheck = new TypeCheckVisitor();
+		promote = new PromoteToRegisterVisitor();
+		streamed = new CombinedSemanticVisitor(names, typeCheck, new LValueSemanticVisitor(), promote);
+		header.funDecls.addAll(0, Prelude.declarations(header.types));
+		header.accept(streamed);
+		promote.giveRegisters();
+		return streamed.getErrorCount();
+	}
+
+	/**
+	 * @return the number of errors in the function
+	 */
+	public int analyzeFunDecl(FunDecl fd) {
+		int before = streamed.getErrorCount();
+		fd.accept(streamed);
+		promote.giveRegisters();
+		return streamed.getErrorCount() - before;
+	}
 }
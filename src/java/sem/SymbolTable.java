@@ -0,0 +1,118 @@
+package sem;
+
+import java.util.Arrays;
+
+/**
+ * Every scope open during name analysis in one table, instead of a chain of Scopes with a HashMap each.
+ *
+ * Each name has one slot in an open addressing table, holding its innermost binding; a binding keeps
+ * the one it shadows, so a lookup is a single probe whatever the nesting. Bindings are pushed on a
+ * stack in declaration order and entering a scope only marks how high it is, so exiting one pops its
+ * bindings back to the mark and puts back whatever they shadowed.
+ */
+public class SymbolTable {
+
+    // slots, a power of two in size: a name, or null when free, and its innermost binding, or -1
+    private String[] names = new String[64];
+    private int[] innermost = free(64);
+    private int used = 0;
+
+    // the binding stack
+    private Symbol[] symbols = new Symbol[64];
+    private int[] slots = new int[64];
+    private int[] shadowed = new int[64];
+    private int[] depths = new int[64];
+    private int size = 0;
+
+    // the stack height when each open scope was entered
+    private int[] marks = new int[16];
+    private int depth = 0;
+
+    public void enterScope() {
+        if (depth == marks.length)
+            marks = Arrays.copyOf(marks, 2 * depth);
+        marks[depth++] = size;
+    }
+
+    public void exitScope() {
+        int mark = marks[--depth];
+        while (size != mark) {
+            size--;
+            innermost[slots[size]] = shadowed[size];
+            symbols[size] = null;
+        }
+    }
+
+    public Symbol lookup(String name) {
+        int binding = innermost[slot(name)];
+        return binding == -1 ? null : symbols[binding];
+    }
+
+    /**
+     * @return the symbol declared as name in the innermost scope, or null if it is only declared further out
+     */
+    public Symbol lookupCurrent(String name) {
+        int binding = innermost[slot(name)];
+        return binding == -1 || depths[binding] != depth ? null : symbols[binding];
+    }
+
+    public void put(Symbol sym) {
+        int slot = slot(sym.name);
+        if (names[slot] == null) {
+            names[slot] = sym.name;
+            if (++used * 2 > names.length) {
+                rehash();
+                slot = slot(sym.name);
+            }
+        }
+        if (size == symbols.length) {
+            symbols = Arrays.copyOf(symbols, 2 * size);
+            slots = Arrays.copyOf(slots, 2 * size);
+            shadowed = Arrays.copyOf(shadowed, 2 * size);
+            depths = Arrays.copyOf(depths, 2 * size);
+        }
+        symbols[size] = sym;
+        slots[size] = slot;
+        shadowed[size] = innermost[slot];
+        depths[size] = depth;
+        innermost[slot] = size++;
+    }
+
+    // the slot holding name, or the free one it would go in
+    private int slot(String name) {
+        int mask = names.length - 1;
+        int h = name.hashCode();
+        int i = (h ^ (h >>> 16)) & mask;
+        for (String n = names[i]; n != null; n = names[i]) {
+            // identifiers are interned by the lexer, but names from elsewhere need not be
+            if (n == name || n.equals(name))
+                return i;
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private static int[] free(int length) {
+        int[] slots = new int[length];
+        Arrays.fill(slots, -1);
+        return slots;
+    }
+
+    private void rehash() {
+        String[] oldNames = names;
+        int[] oldInnermost = innermost;
+        names = new String[2 * oldNames.length];
+        innermost = free(2 * oldNames.length);
+        int[] moved = new int[oldNames.length];
+        for (int i = 0; i != oldNames.length; i++) {
+            if (oldNames[i] == null)
+                continue;
+            int slot = slot(oldNames[i]);
+            names[slot] = oldNames[i];
+            innermost[slot] = oldInnermost[i];
+            moved[i] = slot;
+        }
+        for (int b = 0; b != size; b++)
+            slots[b] = moved[slots[b]];
+    }
+}
@@ -10,10 +10,18 @@ import java.util.Iterator;
 public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 
     Map<String, StructTypeDecl> structs;
+    //those of the program checked
+    Types types;
     Type currentReturnType;
 
     public TypeCheckVisitor(){
-        structs = new HashMap<>();
+        this(new HashMap<>(), null);
+    }
+
+    //for checking functions alone, given the structs and types of their program, which are then only read
+    TypeCheckVisitor(Map<String, StructTypeDecl> structs, Types types){
+        this.structs = structs;
+        this.types = types;
         currentReturnType = null;
     }
 
@@ -28,6 +36,8 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
             error("Struct "+st.type.name+ " declared twice");
         }else{
             structs.put(st.type.name, st);
+            //every use of the struct shares its type, so this is the only place it is set
+            st.type.declaration = st;
         }
 		st.type.accept(this);
 		return null;
@@ -59,6 +69,7 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 
 	@Override
 	public Type visitProgram(Program p) {
+        types = p.types;
 		for(StructTypeDecl sdecl: p.structTypeDecls){
             sdecl.accept(this);
         }
@@ -101,11 +112,9 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 
 	@Override
 	public Type visitStructType(StructType st){
-        StructTypeDecl decl = structs.get(st.name);
-        if(decl==null){
+        if(structs.get(st.name)==null){
             error("Struct "+st.name+" undefined");
         }
-        st.declaration = decl;
 		return st;
 	}
 
@@ -128,7 +137,7 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 
     @Override
     public Type visitAddressOfExpr(AddressOfExpr e){
-    	e.type =  new PointerType(e.expr.accept(this));
+    	e.type =  types.pointer(e.expr.accept(this));
         return e.type;
     }
 
@@ -195,7 +204,7 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 
     @Override
     public Type visitStrLiteral(StrLiteral sl){
-    	sl.type = new ArrayType(sl.value.length()+1, BaseType.CHAR);
+    	sl.type = types.array(sl.value.length()+1, BaseType.CHAR);
         return sl.type;
     }
 
@@ -214,7 +223,6 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
         }
         StructType structType = (StructType)st;
         StructTypeDecl std = structs.get(structType.name);
-        structType.declaration = std;
         if(std == null){
             error("Cannot access field of struct "+structType.name+ "; it does not exist.");
             return null;
@@ -2,21 +2,30 @@ package util;
 
 
 /**
+ * A position in the source packed into a long, line in the high half and column in the low half,
+ * so it can be stored and passed around without an object per token.
+ *
  * @author cdubach
  */
-public class Position {
+public final class Position {
 
-    final int line;
-    final int column;
+    private Position() {
+    }
+
+    public static long of(int line, int column) {
+        return (long) line << 32 | (column & 0xFFFFFFFFL);
+    }
+
+    public static int line(long position) {
+        return (int) (position >>> 32);
+    }
 
-    public Position(int line, int column) {
-        this.line = line;
-        this.column = column;
+    public static int column(long position) {
+        return (int) position;
     }
 
-    @Override
-    public String toString() {
-        return line+":"+column;
+    public static String toString(long position) {
+        return line(position)+":"+column(position);
     }
 
 }
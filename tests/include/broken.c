@@ -0,0 +1,4 @@
+#include "broken.h"
+
+void main() {
+}
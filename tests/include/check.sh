@@ -0,0 +1,58 @@
+#!/bin/sh
+# Checks #include and the parsed header cache. Run from the top of the repository after "ant build".
+# Each check is printed with OK or FAIL; the exit status is the number of failures.
+
+work=$(mktemp -d)
+trap 'rm -rf "$work"' EXIT
+# a copy, so the stale entry check can edit a header, and its own home, so its own cache
+cp -r tests/include "$work/src"
+cache="$work/home/.cache/minic-headers"
+failures=0
+
+sem() {
+    java -Duser.home="$work/home" -cp bin Main -sem -I="$work/src/headers" "$work/src/$1" /dev/null 2>/dev/null
+}
+
+check() {
+    if [ "$2" = 0 ]; then
+        echo "OK   $1"
+    else
+        echo "FAIL $1"
+        failures=$((failures + 1))
+    fi
+}
+
+# shapes.h includes counter.h, which main.c includes again, as it does shapes.h
+sem main.c | grep -q "Semantic analysis: Pass"
+check "nested and repeated includes" $?
+[ "$(ls "$cache" | wc -l)" = 2 ]
+check "one cache entry for each header" $?
+[ "$(stat -c %a "$cache")" = 700 ]
+check "cache only for its owner" $?
+
+# a hit reads the entries and writes none
+before=$(ls -li --full-time "$cache")
+sem main.c | grep -q "Semantic analysis: Pass"
+[ $? = 0 ] && [ "$(ls -li --full-time "$cache")" = "$before" ]
+check "cache hit" $?
+
+# main.c uses origin.y, no longer a field: from a stale entry it would still pass
+sleep 1
+sed -i 's/int y;/int z;/' "$work/src/headers/shapes.h"
+sem main.c | grep -q "Semantic analysis: Failed"
+check "stale entry not used" $?
+
+sem missing.c | grep -q "header nothere.h not found"
+check "missing header" $?
+
+sem broken.c | grep -q "at $work/src/headers/broken.h:3:0"
+check "error named in its header" $?
+
+# a cache others can write to is left alone
+rm -f "$cache"/*
+chmod 777 "$cache"
+sem main.c | grep -q "Semantic analysis: Failed"
+[ $? = 0 ] && [ -z "$(ls "$cache")" ]
+check "shared cache not used" $?
+
+exit $failures
@@ -0,0 +1,3 @@
+struct broken {
+  int x
+};
@@ -0,0 +1,10 @@
+#include "counter.h"
+
+struct point {
+  int x;
+  int y;
+};
+
+struct point origin;
+
+int area(struct point p);
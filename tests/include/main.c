@@ -0,0 +1,14 @@
+#include "shapes.h"
+#include "counter.h"
+#include "shapes.h"
+
+int area(struct point p) {
+  return p.x * p.y;
+}
+
+void main() {
+  origin.x = 3;
+  origin.y = 4;
+  counter = area(origin);
+  print_i(counter);
+}
@@ -0,0 +1,4 @@
+#include "nothere.h"
+
+void main() {
+}